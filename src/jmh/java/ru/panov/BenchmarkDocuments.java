@@ -0,0 +1,46 @@
+package ru.panov;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Тестовые документы для бенчмарков.
+ */
+final class BenchmarkDocuments {
+    private BenchmarkDocuments() {
+    }
+
+    static CrptApi.Document document(int productCount) {
+        LocalDate date = LocalDate.of(2024, 2, 12);
+        List<CrptApi.Document.Product> products = new ArrayList<>(productCount);
+        for (int i = 0; i < productCount; i++) {
+            products.add(CrptApi.Document.Product.builder()
+                    .certificateDocument("CONFORMITY_CERTIFICATE")
+                    .certificateDocumentDate(date)
+                    .certificateDocumentNumber("RU-" + i)
+                    .ownerInn("1234567890")
+                    .producerInn("1234567890")
+                    .productioDate(date)
+                    .tnvedCode("6401100000")
+                    .uitCode("010463003407001221SxMGorvNuq6Wk91JeNN" + i)
+                    .uituCode("uitu-" + i)
+                    .build());
+        }
+        return CrptApi.Document.builder()
+                .description(CrptApi.Document.Description.builder().participantInn("1234567890").build())
+                .docId("doc-" + productCount)
+                .docStatus(CrptApi.Document.DocStatus.NEW.name())
+                .docType(CrptApi.Document.DocType.LP_INTRODUCE_GOODS.name())
+                .importRequest(true)
+                .ownerInn("1234567890")
+                .participantInn("1234567890")
+                .producerInn("1234567890")
+                .productionDate(date)
+                .productionType(CrptApi.Document.ProductType.PRODUCT_TYPE.name())
+                .products(products)
+                .regDate(date)
+                .regNumber("reg123")
+                .build();
+    }
+}
@@ -0,0 +1,58 @@
+package ru.panov;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сравнение сериализации документа в строку и сразу в байты.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DocumentSerializationBenchmark {
+    @Param({"1", "100", "10000"})
+    public int products;
+
+    /**
+     * Значение {@link SerializationFeature#WRITE_DATES_AS_TIMESTAMPS}.
+     */
+    @Param({"true", "false"})
+    public boolean datesAsTimestamps;
+
+    private CrptApi.Document document;
+    private ObjectMapper defaultMapper;
+    private CrptApi.DocumentSerializer defaultSerializer;
+
+    @Setup
+    public void setUp() {
+        document = BenchmarkDocuments.document(products);
+        defaultMapper = JsonMapper.builder()
+                .addModule(new JavaTimeModule())
+                .configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, datesAsTimestamps)
+                .build();
+        defaultSerializer = new CrptApi.DocumentSerializer(defaultMapper);
+    }
+
+    /**
+     * Исходный путь: строка и ее повторное кодирование в UTF-8.
+     */
+    @Benchmark
+    public byte[] defaultMapperString() throws IOException {
+        return defaultMapper.writeValueAsString(document).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] defaultMapperBytes() throws IOException {
+        return defaultSerializer.serialize(document);
+    }
+}
@@ -0,0 +1,58 @@
+package ru.panov;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Полный путь отправки документа: сериализация, очередь, ограничитель и HTTP-вызов
+ * к {@link StubServer} в том же процессе. Лимит не ограничивает пропускную способность.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class EndToEndBenchmark {
+    private static final int REQUEST_LIMIT = 1_000_000;
+
+    @Param({"1", "100"})
+    public int products;
+
+    @Param({"SLIDING_WINDOW", "GCRA"})
+    public CrptApi.LimiterType limiterType;
+
+    @Param({"DISPATCHER_THREAD", "FORK_JOIN"})
+    public CrptApi.ExecutionMode executionMode;
+
+    private StubServer stubServer;
+    private CrptApi crptApi;
+    private CrptApi.DocumentClient documentClient;
+    private CrptApi.Document document;
+
+    @Setup
+    public void setUp() throws IOException {
+        stubServer = StubServer.builder().build();
+        crptApi = new CrptApi(TimeUnit.MILLISECONDS, REQUEST_LIMIT, CrptApi.Settings.builder()
+                .apiUri(stubServer.getUri())
+                .limiterType(limiterType)
+                .executionMode(executionMode)
+                .build());
+        documentClient = crptApi.createDocumentClient();
+        document = BenchmarkDocuments.document(products);
+    }
+
+    @TearDown
+    public void tearDown() {
+        crptApi.close();
+        stubServer.close();
+    }
+
+    @Benchmark
+    public CrptApi.CreateDocumentResult createDocument() {
+        return documentClient.createDocumentAsync(document, "signature").join();
+    }
+}
@@ -0,0 +1,70 @@
+package ru.panov;
+
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * Цена сжатия gzip в процессорном времени против выигрыша в объеме передаваемых данных.
+ * Счетчик {@link WireBytes#wireBytes} показывает, сколько байт в секунду уходит в сеть,
+ * а отношение его к пропускной способности - размер одного тела запроса.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GzipCompressionBenchmark {
+    @Param({"100", "10000"})
+    public int products;
+
+    /**
+     * Уровни сжатия {@link Deflater#BEST_SPEED} и {@link Deflater#DEFAULT_COMPRESSION};
+     * для {@link #plain} не используется.
+     */
+    @Param({"1", "6"})
+    public int level;
+
+    private CrptApi.Document document;
+    private CrptApi.DocumentSerializer serializer;
+    private CrptApi.GzipEncoder encoder;
+
+    @Setup
+    public void setUp() {
+        document = BenchmarkDocuments.document(products);
+        serializer = new CrptApi.DocumentSerializer(JsonMapper.builder()
+                .addModule(new JavaTimeModule())
+                .build());
+        encoder = new CrptApi.GzipEncoder(0, level);
+    }
+
+    @Benchmark
+    public byte[] plain(WireBytes counters) throws IOException {
+        byte[] body = serializer.serialize(document);
+        counters.wireBytes += body.length;
+        return body;
+    }
+
+    @Benchmark
+    public byte[] gzip(WireBytes counters) throws IOException {
+        byte[] body = encoder.encode(serializer.serialize(document));
+        counters.wireBytes += body.length;
+        return body;
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class WireBytes {
+        public long wireBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            wireBytes = 0;
+        }
+    }
+}
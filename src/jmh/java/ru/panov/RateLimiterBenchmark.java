@@ -0,0 +1,120 @@
+package ru.panov;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сравнение стоимости получения разрешения разными ограничителями при 1, 8 и 64 потоках.
+ * Лимит выбран настолько большим, чтобы измерялась именно синхронизация, а не ожидание окна.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RateLimiterBenchmark {
+    private static final int REQUEST_LIMIT = 1_000_000;
+    private static final Runnable NO_OP = () -> {
+    };
+
+    @Benchmark
+    @Threads(1)
+    public void acquire1Thread(LimiterState state) throws InterruptedException {
+        state.rateLimiter.acquire();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void acquire8Threads(LimiterState state) throws InterruptedException {
+        state.rateLimiter.acquire();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public void acquire64Threads(LimiterState state) throws InterruptedException {
+        state.rateLimiter.acquire();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void sharedMemory1Thread(SharedMemoryState state) throws InterruptedException {
+        state.rateLimiter.acquire();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void sharedMemory8Threads(SharedMemoryState state) throws InterruptedException {
+        state.rateLimiter.acquire();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Runnable semaphoreAndQueue1Thread(SemaphoreState state) throws InterruptedException {
+        return semaphoreAndQueue(state);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Runnable semaphoreAndQueue8Threads(SemaphoreState state) throws InterruptedException {
+        return semaphoreAndQueue(state);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public Runnable semaphoreAndQueue64Threads(SemaphoreState state) throws InterruptedException {
+        return semaphoreAndQueue(state);
+    }
+
+    /**
+     * Прежняя схема: семафор и очередь задач на каждый запрос.
+     */
+    private static Runnable semaphoreAndQueue(SemaphoreState state) throws InterruptedException {
+        state.requestQueue.offer(NO_OP);
+        state.semaphore.acquire();
+        state.semaphore.release();
+        return state.requestQueue.poll();
+    }
+
+    @State(Scope.Benchmark)
+    public static class LimiterState {
+        @Param({"SLIDING_WINDOW", "GCRA"})
+        public CrptApi.LimiterType limiterType;
+
+        CrptApi.RateLimiter rateLimiter;
+
+        @Setup
+        public void setUp() {
+            rateLimiter = limiterType.create(TimeUnit.MILLISECONDS, REQUEST_LIMIT);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class SharedMemoryState {
+        CrptApi.SharedMemoryRateLimiter rateLimiter;
+        Path file;
+
+        @Setup
+        public void setUp() throws IOException {
+            file = Files.createTempFile("crpt-limit-", ".bin");
+            rateLimiter = new CrptApi.SharedMemoryRateLimiter(file, TimeUnit.MILLISECONDS, REQUEST_LIMIT);
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class SemaphoreState {
+        final Semaphore semaphore = new Semaphore(REQUEST_LIMIT);
+        final BlockingQueue<Runnable> requestQueue = new LinkedBlockingQueue<>();
+    }
+}
@@ -0,0 +1,54 @@
+package ru.panov;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Пропускная способность очереди запросов.
+ * Каждый поток сначала помещает задачу, а затем забирает одну, поэтому {@code take} никогда не блокируется.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestQueueBenchmark {
+    private static final CrptApi.RequestTask NO_OP = new CrptApi.RequestTask() {
+        @Override
+        public void run() {
+        }
+
+        @Override
+        public void reject(Exception cause) {
+        }
+    };
+
+    @Param({"1024", "2147483647"})
+    public int capacity;
+
+    @Param({"BLOCK", "DROP_OLDEST"})
+    public CrptApi.OverflowPolicy overflowPolicy;
+
+    private CrptApi.RequestQueue requestQueue;
+
+    @Setup
+    public void setUp() {
+        requestQueue = new CrptApi.RequestQueue(capacity, overflowPolicy, null);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public CrptApi.RequestTask putTake1Thread() throws InterruptedException {
+        requestQueue.put(NO_OP);
+        return requestQueue.take();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public CrptApi.RequestTask putTake8Threads() throws InterruptedException {
+        requestQueue.put(NO_OP);
+        return requestQueue.take();
+    }
+}
@@ -0,0 +1,4152 @@
+package ru.panov;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Класс для взаимодействия с CrptAPI.
+ * Поддерживает создание документов с ограничением количества запросов в скользящем окне времени.
+ */
+public class CrptApi implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(CrptApi.class.getName());
+    private static final String API_URL = "https://ismp.crpt.ru/api/v3/lk/documents/create";
+    private final HttpClient httpClient;
+    private final ObjectMapper objectMapper;
+    private final DocumentSerializer documentSerializer;
+    private final GzipEncoder gzipEncoder;
+    private final DocumentSplitter documentSplitter;
+    private final RateLimiter rateLimiter;
+    private final InFlightLimiter inFlightLimiter;
+    private final ExecutorService dispatcher;
+    private final Executor workers;
+    /**
+     * Свободные места у исполнителя; {@code null} в режиме {@link ExecutionMode#DISPATCHER_THREAD}.
+     */
+    private final Semaphore workerPermits;
+    private final int requestLimit;
+    private final TimeUnit timeUnit;
+    private final RequestQueue requestQueue;
+    private final DocumentJournal journal;
+    private final Metrics metrics;
+    private final RetryScheduler retryScheduler;
+    private final Settings settings;
+
+    /**
+     * Инициализирует Crpt API  с заданным лимитом запросов и временной единицей для таймера.
+     *
+     * @param timeUnit     временная единица для таймера
+     * @param requestLimit максимальное количество запросов за промежуток времени
+     */
+    public CrptApi(TimeUnit timeUnit, int requestLimit) {
+        this(timeUnit, requestLimit, Settings.builder().build());
+    }
+
+    /**
+     * Инициализирует Crpt API с заданным лимитом запросов и дополнительными настройками.
+     *
+     * @param timeUnit     временная единица для таймера
+     * @param requestLimit максимальное количество запросов за промежуток времени
+     * @param settings     дополнительные настройки
+     */
+    public CrptApi(TimeUnit timeUnit, int requestLimit, Settings settings) {
+        if (requestLimit <= 0) {
+            throw new IllegalArgumentException("requestLimit must be positive: " + requestLimit);
+        }
+        this.timeUnit = timeUnit;
+        this.requestLimit = requestLimit;
+        this.settings = settings;
+        this.httpClient = createHttpClient(settings);
+        this.objectMapper = JsonMapper.builder().addModule(new JavaTimeModule()).build();
+        this.documentSerializer = new DocumentSerializer(objectMapper);
+        this.gzipEncoder = settings.gzipThreshold == Integer.MAX_VALUE
+                ? null : new GzipEncoder(settings.gzipThreshold, settings.gzipLevel);
+        this.documentSplitter = settings.splitMaxProducts == Integer.MAX_VALUE && settings.splitMaxBytes == Integer.MAX_VALUE
+                ? null : new DocumentSplitter(settings.splitMaxProducts, settings.splitMaxBytes);
+        this.requestQueue = new RequestQueue(settings.fairQueueing
+                ? new FairRequestQueue(settings.queueCapacity, settings.tenantWeights)
+                : new LinkedBlockingQueue<>(settings.queueCapacity), settings.overflowPolicy, settings.spillDirectory);
+        this.metrics = new Metrics(requestQueue::size);
+        this.rateLimiter = createRateLimiter();
+        this.inFlightLimiter = new InFlightLimiter(settings.maxInFlight);
+        this.dispatcher = Executors.newSingleThreadExecutor();
+        this.workers = settings.executionMode.createExecutor(settings.parallelism);
+        this.workerPermits = settings.executionMode == ExecutionMode.DISPATCHER_THREAD
+                ? null : new Semaphore(settings.parallelism);
+        this.journal = openJournal(settings);
+        this.retryScheduler = settings.retryPolicy == null ? null : new RetryScheduler(settings.retryPolicy);
+        if (settings.warmUp) {
+            warmUp();
+        }
+        startDispatcher();
+        replayJournal();
+    }
+
+    /**
+     * Создает клиент, отправляющий документы через очередь и ограничитель этого экземпляра.
+     *
+     * @return клиент для создания документов
+     */
+    public RestDocumentClientImpl createDocumentClient() {
+        return RestDocumentClientImpl.builder()
+                .httpClient(httpClient)
+                .objectMapper(objectMapper)
+                .documentSerializer(documentSerializer)
+                .gzipEncoder(gzipEncoder)
+                .streamingThreshold(settings.streamingThreshold)
+                .documentSplitter(documentSplitter)
+                .rateLimiter(rateLimiter)
+                .inFlightLimiter(inFlightLimiter)
+                .requestQueue(requestQueue)
+                .journal(journal)
+                .apiUri(settings.apiUri)
+                .requestTimeout(settings.requestTimeout)
+                .metrics(metrics)
+                .retryScheduler(retryScheduler)
+                .build();
+    }
+
+    /**
+     * Возвращает метрики отправки документов этого экземпляра.
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Останавливает диспетчер, пул исполнителей и таймер повторов и закрывает журнал.
+     * Задачи, оставшиеся в очереди, и запланированные повторы не отправляются: их результаты
+     * завершаются {@link CancellationException}, а новые документы сразу отклоняются.
+     * Журнал закрывается до отклонения задач, поэтому отклоненные документы в нем остаются
+     * неподтвержденными, и их отправит следующий экземпляр с тем же каталогом.
+     */
+    @Override
+    public void close() {
+        dispatcher.shutdownNow();
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Unable to close document journal", e);
+            }
+        }
+        requestQueue.close();
+        if (retryScheduler != null) {
+            retryScheduler.close();
+        }
+        if (workers instanceof ExecutorService) {
+            ((ExecutorService) workers).shutdown();
+        }
+    }
+
+    private static HttpClient createHttpClient(Settings settings) {
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(settings.httpVersion)
+                .connectTimeout(settings.connectTimeout);
+        if (settings.httpExecutor != null) {
+            builder.executor(settings.httpExecutor);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Устанавливает соединение с сервером до первой отправки документа, чтобы TLS-рукопожатие
+     * и согласование версии HTTP не увеличивали задержку первых запросов.
+     * Запрос HEAD учитывается ограничителем частоты, ошибка прогрева только логируется.
+     */
+    private void warmUp() {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(settings.apiUri)
+                .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                .timeout(settings.connectTimeout)
+                .build();
+        try {
+            rateLimiter.acquire();
+            HttpResponse<Void> response = httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+            logger.fine("Connection warmed up using " + response.version());
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Connection warm-up failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private RateLimiter createHardLimiter() {
+        if (settings.quotaCoordinator != null) {
+            int leaseSize = settings.leaseSize > 0 ? settings.leaseSize : Math.max(1, requestLimit / 10);
+            return new LeasingRateLimiter(settings.quotaCoordinator, settings.nodeId, leaseSize);
+        }
+        if (settings.sharedLimitFile != null) {
+            try {
+                return new SharedMemoryRateLimiter(settings.sharedLimitFile, timeUnit, requestLimit);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to open shared rate limit file", e);
+            }
+        }
+        if (!settings.tenantLimits.isEmpty() || settings.defaultTenantLimit != Integer.MAX_VALUE) {
+            return new HierarchicalRateLimiter(timeUnit, requestLimit, settings.tenantLimits, settings.defaultTenantLimit);
+        }
+        return settings.limiterType.create(timeUnit, requestLimit);
+    }
+
+    private RateLimiter createRateLimiter() {
+        RateLimiter hardLimiter = createHardLimiter();
+        RateLimiter limiter = settings.adaptive ? new AdaptiveRateLimiter(hardLimiter, timeUnit, requestLimit) : hardLimiter;
+        if (!settings.verifyRateLimit) {
+            return limiter;
+        }
+        return new CheckedRateLimiter(limiter, timeUnit, requestLimit, () -> {
+            metrics.recordLimitViolation();
+            logger.severe("Rate limit violated: more than " + requestLimit + " requests per " + timeUnit);
+        });
+    }
+
+    private static DocumentJournal openJournal(Settings settings) {
+        if (settings.journalDirectory == null) {
+            return null;
+        }
+        try {
+            return new DocumentJournal(settings.journalDirectory, settings.journalSegmentSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to open document journal", e);
+        }
+    }
+
+    /**
+     * Повторно ставит в очередь документы, не подтвержденные до предыдущей остановки.
+     */
+    private void replayJournal() {
+        if (journal == null) {
+            return;
+        }
+        List<DocumentJournal.JournalRecord> pending = journal.pendingRecords();
+        if (!pending.isEmpty()) {
+            logger.info("Replaying " + pending.size() + " pending documents from journal");
+            RestDocumentClientImpl client = createDocumentClient();
+            pending.forEach(client::resubmit);
+        }
+    }
+
+    /**
+     * Запускает поток, который по очереди передает задачи из очереди запросов исполнителю
+     * согласно {@link ExecutionMode}. Ограничение частоты обеспечивается {@link RateLimiter} внутри самих задач.
+     * Задача забирается из очереди, только когда у исполнителя есть свободное место, поэтому
+     * ограниченная очередь запросов остается единственным буфером: ее политика переполнения
+     * и порядок обслуживания действуют во всех режимах, а очередь пула не растет.
+     */
+    private void startDispatcher() {
+        dispatcher.execute(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    if (workerPermits == null) {
+                        requestQueue.take().run();
+                    } else {
+                        workerPermits.acquire();
+                        handOff(requestQueue.take());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (RuntimeException e) {
+                    logger.log(Level.SEVERE, "Unexpected error in request dispatcher", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Передает задачу исполнителю; место освобождается по завершении задачи.
+     */
+    private void handOff(RequestTask task) {
+        try {
+            workers.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    workerPermits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            workerPermits.release();
+            task.reject(e);
+        }
+    }
+
+    /**
+     * Дополнительные настройки CrptApi.
+     */
+    @Builder
+    @Getter
+    public static class Settings {
+        /**
+         * Адрес метода создания документа.
+         */
+        @Builder.Default
+        private final URI apiUri = URI.create(API_URL);
+        /**
+         * Предпочитаемая версия HTTP. Если сервер не поддерживает HTTP/2, клиент переходит на HTTP/1.1.
+         */
+        @Builder.Default
+        private final HttpClient.Version httpVersion = HttpClient.Version.HTTP_2;
+        /**
+         * Исполнитель для асинхронных задач HTTP-клиента. Если не задан, клиент создает собственный пул.
+         */
+        private final Executor httpExecutor;
+        /**
+         * Таймаут установки соединения.
+         */
+        @Builder.Default
+        private final Duration connectTimeout = Duration.ofSeconds(10);
+        /**
+         * Таймаут ожидания ответа на запрос. Если не задан, ответ ожидается без ограничения.
+         */
+        @Builder.Default
+        private final Duration requestTimeout = Duration.ofSeconds(30);
+        /**
+         * Прогрев соединения при создании CrptApi.
+         */
+        private final boolean warmUp;
+        /**
+         * Алгоритм ограничения частоты запросов.
+         */
+        @Builder.Default
+        private final LimiterType limiterType = LimiterType.SLIDING_WINDOW;
+        /**
+         * Координатор квоты кластера. Если задан, узел получает разрешения в аренду через {@link LeasingRateLimiter},
+         * а общий лимит соблюдает координатор; остальные настройки ограничителя не учитываются.
+         */
+        private final QuotaCoordinator quotaCoordinator;
+        /**
+         * Идентификатор узла для координатора квоты.
+         */
+        @Builder.Default
+        private final String nodeId = UUID.randomUUID().toString();
+        /**
+         * Количество разрешений в одной аренде. По умолчанию десятая часть requestLimit.
+         */
+        private final int leaseSize;
+        /**
+         * Файл общего для процессов машины состояния ограничителя. Если задан, все экземпляры CrptApi,
+         * открывшие этот файл, делят один лимит через {@link SharedMemoryRateLimiter},
+         * а {@link #limiterType} и лимиты участников не учитываются.
+         * Время в файле берется из часов машины, и скачок часов вперед может пропустить в одном окне
+         * больше запросов, чем позволяет лимит; см. {@link SharedMemoryRateLimiter}.
+         */
+        private final Path sharedLimitFile;
+        /**
+         * Лимиты участников по ИНН за ту же единицу времени. Если заданы они или {@link #defaultTenantLimit},
+         * используется {@link HierarchicalRateLimiter}, а {@link #limiterType} не учитывается.
+         * Неиспользованную долю одного участника могут занимать другие.
+         */
+        @Builder.Default
+        private final Map<String, Integer> tenantLimits = Map.of();
+        /**
+         * Лимит участников, не указанных в {@link #tenantLimits}.
+         */
+        @Builder.Default
+        private final int defaultTenantLimit = Integer.MAX_VALUE;
+        /**
+         * Адаптивный режим: частота снижается по ответам 429/503 и постепенно возвращается к лимиту.
+         */
+        private final boolean adaptive;
+        /**
+         * Проверка ограничителя: каждое разрешение сверяется с лимитом, нарушения учитываются в метриках.
+         */
+        private final boolean verifyRateLimit;
+        /**
+         * Максимальное количество одновременно выполняющихся запросов, независимо от частоты.
+         */
+        @Builder.Default
+        private final int maxInFlight = Integer.MAX_VALUE;
+        /**
+         * Режим выполнения задач отправки документов.
+         */
+        @Builder.Default
+        private final ExecutionMode executionMode = ExecutionMode.DISPATCHER_THREAD;
+        /**
+         * Параллелизм пула для режима {@link ExecutionMode#FORK_JOIN}
+         * и для {@link ExecutionMode#VIRTUAL_THREADS}, если виртуальные потоки недоступны.
+         * В обоих режимах это и максимальное количество задач, одновременно переданных исполнителю:
+         * остальные ждут в очереди запросов.
+         */
+        @Builder.Default
+        private final int parallelism = Runtime.getRuntime().availableProcessors();
+        /**
+         * Максимальное количество задач в очереди запросов.
+         */
+        @Builder.Default
+        private final int queueCapacity = Integer.MAX_VALUE;
+        /**
+         * Справедливое обслуживание участников: у каждого participantInn своя подочередь,
+         * и подочереди обслуживаются по кругу согласно {@link #tenantWeights}.
+         * При {@link OverflowPolicy#DROP_OLDEST} отбрасывается задача, следующая по очереди обслуживания.
+         */
+        private final boolean fairQueueing;
+        /**
+         * Веса участников по ИНН для справедливой очереди: участник с весом w получает w слотов за круг.
+         * Участники без веса получают вес 1.
+         */
+        @Builder.Default
+        private final Map<String, Integer> tenantWeights = Map.of();
+        /**
+         * Поведение при переполнении очереди запросов.
+         */
+        @Builder.Default
+        private final OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+        /**
+         * Размер тела запроса в байтах, начиная с которого оно сжимается gzip.
+         * По умолчанию сжатие выключено.
+         */
+        @Builder.Default
+        private final int gzipThreshold = Integer.MAX_VALUE;
+        /**
+         * Уровень сжатия gzip.
+         */
+        @Builder.Default
+        private final int gzipLevel = Deflater.BEST_SPEED;
+        /**
+         * Количество товаров, начиная с которого документ сериализуется потоково во время отправки.
+         * Такие документы не сжимаются, не вытесняются на диск и не записываются в журнал.
+         * По умолчанию потоковая передача выключена; при разделении документов не используется.
+         */
+        @Builder.Default
+        private final int streamingThreshold = Integer.MAX_VALUE;
+        /**
+         * Максимальное количество товаров в одном запросе. Документ с большим количеством товаров
+         * отправляется частями. По умолчанию документы не делятся.
+         */
+        @Builder.Default
+        private final int splitMaxProducts = Integer.MAX_VALUE;
+        /**
+         * Максимальный размер тела запроса в байтах (после сжатия, если оно включено).
+         * Документ с большим телом отправляется частями. По умолчанию документы не делятся.
+         */
+        @Builder.Default
+        private final int splitMaxBytes = Integer.MAX_VALUE;
+        /**
+         * Каталог для вытесненных на диск документов в режиме {@link OverflowPolicy#SPILL_TO_DISK}.
+         */
+        @Builder.Default
+        private final Path spillDirectory = Path.of(System.getProperty("java.io.tmpdir"), "crpt-api-spill");
+        /**
+         * Каталог журнала неотправленных документов. Если не задан, журнал не ведется.
+         */
+        private final Path journalDirectory;
+        /**
+         * Размер одного сегмента журнала в байтах.
+         */
+        @Builder.Default
+        private final int journalSegmentSize = 64 * 1024 * 1024;
+        /**
+         * Политика повторных попыток. Если не задана, запросы не повторяются.
+         */
+        private final RetryPolicy retryPolicy;
+    }
+
+    /**
+     * Перечисление режимов выполнения задач отправки документов.
+     */
+    public enum ExecutionMode {
+        /**
+         * Все задачи выполняются последовательно в потоке диспетчера.
+         */
+        DISPATCHER_THREAD {
+            @Override
+            public Executor createExecutor(int parallelism) {
+                return Runnable::run;
+            }
+        },
+        /**
+         * Каждая задача выполняется в собственном виртуальном потоке (Java 21+).
+         * На более ранних версиях Java используется {@link ForkJoinPool}.
+         */
+        VIRTUAL_THREADS {
+            @Override
+            public Executor createExecutor(int parallelism) {
+                try {
+                    return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                } catch (ReflectiveOperationException e) {
+                    logger.info("Virtual threads are not available, falling back to ForkJoinPool");
+                    return FORK_JOIN.createExecutor(parallelism);
+                }
+            }
+        },
+        /**
+         * Задачи выполняются в {@link ForkJoinPool} с заданным параллелизмом.
+         */
+        FORK_JOIN {
+            @Override
+            public Executor createExecutor(int parallelism) {
+                return new ForkJoinPool(parallelism);
+            }
+        };
+
+        public abstract Executor createExecutor(int parallelism);
+    }
+
+    /**
+     * Перечисление политик поведения при переполнении очереди запросов.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Вызывающий поток блокируется до освобождения места в очереди.
+         */
+        BLOCK,
+        /**
+         * Новая задача сразу отклоняется с {@link RejectedExecutionException}.
+         */
+        FAIL_FAST,
+        /**
+         * Самая старая задача в очереди отклоняется, чтобы освободить место для новой.
+         */
+        DROP_OLDEST,
+        /**
+         * Документ новой задачи сохраняется на диск, а в памяти остается только легковесная ссылка на него.
+         * Задачи, которые нельзя вытеснить на диск, ожидают места в очереди, как при {@link #BLOCK}.
+         */
+        SPILL_TO_DISK
+    }
+
+    /**
+     * Задача отправки, помещаемая в очередь запросов.
+     */
+    public interface RequestTask extends Runnable {
+        /**
+         * Отклоняет задачу, не выполняя ее.
+         *
+         * @param cause причина отклонения
+         */
+        void reject(Exception cause);
+
+        /**
+         * Сохраняет данные задачи на диск.
+         *
+         * @param directory каталог для сохранения
+         * @return задача, читающая данные с диска, или {@code null}, если вытеснение не поддерживается
+         * @throws IOException если данные не удалось сохранить
+         */
+        default RequestTask spill(Path directory) throws IOException {
+            return null;
+        }
+
+        /**
+         * ИНН участника, от имени которого отправляется задача; используется {@link FairRequestQueue}.
+         */
+        default String tenant() {
+            return null;
+        }
+    }
+
+    /**
+     * Ограниченная очередь запросов с настраиваемой политикой переполнения.
+     * После {@link #close()} все задачи, оставшиеся в очереди или поставленные позже, отклоняются.
+     */
+    public static class RequestQueue {
+        private final BlockingQueue<RequestTask> queue;
+        private final OverflowPolicy overflowPolicy;
+        private final Path spillDirectory;
+        private final Queue<SpilledTask> spilled = new ArrayDeque<>();
+        private volatile boolean closed;
+
+        public RequestQueue(int capacity, OverflowPolicy overflowPolicy, Path spillDirectory) {
+            this(new LinkedBlockingQueue<>(capacity), overflowPolicy, spillDirectory);
+        }
+
+        /**
+         * @param queue ограниченная очередь, определяющая порядок обслуживания задач
+         */
+        public RequestQueue(BlockingQueue<RequestTask> queue, OverflowPolicy overflowPolicy, Path spillDirectory) {
+            this.queue = queue;
+            this.overflowPolicy = overflowPolicy;
+            this.spillDirectory = spillDirectory;
+        }
+
+        /**
+         * Возвращает {@code true}, если задачи обслуживаются справедливо по участникам.
+         * Тогда пакеты документов ставятся в очередь по одному документу,
+         * иначе пакет одного участника занимал бы диспетчер до конца своей отправки.
+         */
+        public boolean isFair() {
+            return queue instanceof FairRequestQueue;
+        }
+
+        /**
+         * Помещает задачу в очередь согласно политике переполнения.
+         * Отклоненные задачи завершаются через {@link RequestTask#reject(Exception)}.
+         *
+         * @param task задача отправки
+         * @throws InterruptedException если поток был прерван во время ожидания места
+         */
+        public void put(RequestTask task) throws InterruptedException {
+            if (closed) {
+                task.reject(closedException());
+                return;
+            }
+            switch (overflowPolicy) {
+                case BLOCK -> queue.put(task);
+                case FAIL_FAST -> {
+                    if (!queue.offer(task)) {
+                        task.reject(new RejectedExecutionException("Request queue is full"));
+                    }
+                }
+                case DROP_OLDEST -> {
+                    while (!queue.offer(task)) {
+                        RequestTask oldest = queue.poll();
+                        if (oldest != null) {
+                            oldest.reject(new RejectedExecutionException("Dropped from full request queue"));
+                        }
+                    }
+                }
+                case SPILL_TO_DISK -> putOrSpill(task);
+            }
+            rejectIfClosed();
+        }
+
+        /**
+         * Помещает задачу в очередь, только если в ней есть место, не блокируясь и не обращаясь к диску.
+         * Политика переполнения не применяется: задача, не поместившаяся в очередь, не отклоняется.
+         * В закрытой очереди задача отклоняется.
+         *
+         * @param task задача отправки
+         * @return {@code true}, если задача помещена в очередь или отклонена закрытой очередью
+         */
+        public boolean offer(RequestTask task) {
+            if (closed) {
+                task.reject(closedException());
+                return true;
+            }
+            if (!queue.offer(task)) {
+                return false;
+            }
+            rejectIfClosed();
+            return true;
+        }
+
+        /**
+         * Закрывает очередь и отклоняет оставшиеся задачи, включая вытесненные на диск,
+         * с {@link CancellationException}.
+         */
+        public void close() {
+            closed = true;
+            rejectIfClosed();
+        }
+
+        public boolean isClosed() {
+            return closed;
+        }
+
+        /**
+         * Забирает следующую задачу, ожидая ее появления.
+         */
+        public RequestTask take() throws InterruptedException {
+            RequestTask task = queue.take();
+            if (overflowPolicy == OverflowPolicy.SPILL_TO_DISK) {
+                refill();
+            }
+            return task;
+        }
+
+        /**
+         * Возвращает количество задач, ожидающих отправки, включая вытесненные на диск.
+         */
+        public int size() {
+            synchronized (spilled) {
+                return queue.size() + spilled.size();
+            }
+        }
+
+        /**
+         * Место задачи занимается в порядке вытесненных задач под блокировкой, а запись на диск идет без нее,
+         * поэтому производители и {@link #size()} не ждут чужой записи.
+         */
+        private void putOrSpill(RequestTask task) throws InterruptedException {
+            SpilledTask slot = new SpilledTask();
+            synchronized (spilled) {
+                // Пока на диске есть задачи, новые тоже уходят туда, чтобы сохранить порядок.
+                if (spilled.isEmpty() && queue.offer(task)) {
+                    return;
+                }
+                spilled.add(slot);
+            }
+            RequestTask spilledTask = null;
+            IOException failure = null;
+            try {
+                spilledTask = task.spill(spillDirectory);
+            } catch (IOException e) {
+                failure = e;
+            } finally {
+                synchronized (spilled) {
+                    if (spilledTask == null) {
+                        spilled.remove(slot);
+                    } else {
+                        slot.task = spilledTask;
+                    }
+                }
+                refill();
+            }
+            if (failure != null) {
+                task.reject(failure);
+            } else if (spilledTask == null) {
+                queue.put(task);
+            }
+        }
+
+        /**
+         * Отклоняет задачи закрытой очереди. Вызывается и после каждой постановки: задача,
+         * поставленная одновременно с закрытием, отклоняется либо закрывающим, либо поставившим потоком.
+         */
+        private void rejectIfClosed() {
+            if (!closed) {
+                return;
+            }
+            List<RequestTask> remaining = new ArrayList<>();
+            synchronized (spilled) {
+                queue.drainTo(remaining);
+                // Задачу, которая еще записывается на диск, отклонит поставивший ее поток после записи.
+                spilled.removeIf(slot -> slot.task != null && remaining.add(slot.task));
+            }
+            remaining.forEach(task -> task.reject(closedException()));
+        }
+
+        private static CancellationException closedException() {
+            return new CancellationException("Request queue is closed");
+        }
+
+        /**
+         * Переносит вытесненные задачи в освободившееся место очереди.
+         * После каждого вызова либо вытесненных задач нет, либо очередь заполнена, либо первая
+         * вытесненная задача еще записывается и ее поток вызовет перенос после записи,
+         * поэтому задачи на диске не могут остаться без потребителя.
+         */
+        private void refill() {
+            synchronized (spilled) {
+                SpilledTask head;
+                while ((head = spilled.peek()) != null && head.task != null && queue.offer(head.task)) {
+                    spilled.poll();
+                }
+            }
+        }
+
+        /**
+         * Место вытесненной задачи в порядке очереди.
+         */
+        private static class SpilledTask {
+            /**
+             * Задача, читающая данные с диска; {@code null}, пока данные записываются.
+             * Доступ под монитором {@code spilled}.
+             */
+            private RequestTask task;
+        }
+    }
+
+    /**
+     * Очередь задач со справедливым обслуживанием участников по алгоритму deficit round robin.
+     * У каждого участника своя подочередь, активные подочереди обходятся по кругу,
+     * и за один обход участник с весом w отдает до w задач. Каждая задача стоит одну единицу,
+     * поэтому извлечение выполняется за O(1). Крупный участник не задерживает остальных,
+     * а общий лимит по-прежнему обеспечивают ограничители внутри задач.
+     */
+    public static class FairRequestQueue extends AbstractQueue<RequestTask> implements BlockingQueue<RequestTask> {
+        private static final String DEFAULT_TENANT = "";
+
+        private final int capacity;
+        private final Map<String, Integer> weights;
+        private final Map<String, TenantQueue> tenants = new HashMap<>();
+        private final ArrayDeque<TenantQueue> active = new ArrayDeque<>();
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notEmpty = lock.newCondition();
+        private final Condition notFull = lock.newCondition();
+        private int count;
+
+        /**
+         * @param capacity максимальное количество задач
+         * @param weights  веса участников по ИНН; участники без веса получают вес 1
+         */
+        public FairRequestQueue(int capacity, Map<String, Integer> weights) {
+            this.capacity = capacity;
+            this.weights = Map.copyOf(weights);
+        }
+
+        @Override
+        public boolean offer(RequestTask task) {
+            lock.lock();
+            try {
+                if (count == capacity) {
+                    return false;
+                }
+                enqueue(task);
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public boolean offer(RequestTask task, long timeout, TimeUnit unit) throws InterruptedException {
+            long nanos = unit.toNanos(timeout);
+            lock.lockInterruptibly();
+            try {
+                while (count == capacity) {
+                    if (nanos <= 0) {
+                        return false;
+                    }
+                    nanos = notFull.awaitNanos(nanos);
+                }
+                enqueue(task);
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void put(RequestTask task) throws InterruptedException {
+            lock.lockInterruptibly();
+            try {
+                while (count == capacity) {
+                    notFull.await();
+                }
+                enqueue(task);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public RequestTask poll() {
+            lock.lock();
+            try {
+                return count == 0 ? null : dequeue();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public RequestTask poll(long timeout, TimeUnit unit) throws InterruptedException {
+            long nanos = unit.toNanos(timeout);
+            lock.lockInterruptibly();
+            try {
+                while (count == 0) {
+                    if (nanos <= 0) {
+                        return null;
+                    }
+                    nanos = notEmpty.awaitNanos(nanos);
+                }
+                return dequeue();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public RequestTask take() throws InterruptedException {
+            lock.lockInterruptibly();
+            try {
+                while (count == 0) {
+                    notEmpty.await();
+                }
+                return dequeue();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public RequestTask peek() {
+            lock.lock();
+            try {
+                return count == 0 ? null : active.peekFirst().tasks.peekFirst();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public int size() {
+            lock.lock();
+            try {
+                return count;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public int remainingCapacity() {
+            lock.lock();
+            try {
+                return capacity - count;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public int drainTo(Collection<? super RequestTask> target) {
+            return drainTo(target, Integer.MAX_VALUE);
+        }
+
+        @Override
+        public int drainTo(Collection<? super RequestTask> target, int maxElements) {
+            lock.lock();
+            try {
+                int drained = 0;
+                while (count > 0 && drained < maxElements) {
+                    target.add(dequeue());
+                    drained++;
+                }
+                return drained;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Удаляет задачу из подочереди ее участника. Если подочередь опустела, участник выходит из обхода,
+         * как при извлечении последней задачи; дефицит остальных участников не меняется.
+         */
+        @Override
+        public boolean remove(Object o) {
+            if (!(o instanceof RequestTask)) {
+                return false;
+            }
+            RequestTask task = (RequestTask) o;
+            lock.lock();
+            try {
+                TenantQueue tenant = tenants.get(task.tenant() == null ? DEFAULT_TENANT : task.tenant());
+                if (tenant == null || !tenant.tasks.remove(task)) {
+                    return false;
+                }
+                if (tenant.tasks.isEmpty()) {
+                    active.remove(tenant);
+                    tenants.remove(tenant.key);
+                }
+                count--;
+                notFull.signal();
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Возвращает снимок задач в порядке подочередей, а не в порядке извлечения.
+         * Удаление через итератор удаляет задачу из очереди, если она еще там.
+         */
+        @Override
+        public Iterator<RequestTask> iterator() {
+            List<RequestTask> snapshot;
+            lock.lock();
+            try {
+                snapshot = new ArrayList<>(count);
+                active.forEach(tenant -> snapshot.addAll(tenant.tasks));
+            } finally {
+                lock.unlock();
+            }
+            Iterator<RequestTask> tasks = snapshot.iterator();
+            return new Iterator<>() {
+                private RequestTask last;
+
+                @Override
+                public boolean hasNext() {
+                    return tasks.hasNext();
+                }
+
+                @Override
+                public RequestTask next() {
+                    last = tasks.next();
+                    return last;
+                }
+
+                @Override
+                public void remove() {
+                    if (last == null) {
+                        throw new IllegalStateException();
+                    }
+                    FairRequestQueue.this.remove(last);
+                    last = null;
+                }
+            };
+        }
+
+        private void enqueue(RequestTask task) {
+            String key = task.tenant() == null ? DEFAULT_TENANT : task.tenant();
+            TenantQueue tenant = tenants.computeIfAbsent(key, k -> new TenantQueue(k, Math.max(1, weights.getOrDefault(k, 1))));
+            if (tenant.tasks.isEmpty()) {
+                tenant.deficit = tenant.quantum;
+                active.addLast(tenant);
+            }
+            tenant.tasks.addLast(task);
+            count++;
+            notEmpty.signal();
+        }
+
+        private RequestTask dequeue() {
+            TenantQueue tenant = active.peekFirst();
+            RequestTask task = tenant.tasks.pollFirst();
+            if (tenant.tasks.isEmpty()) {
+                active.pollFirst();
+                tenants.remove(tenant.key);
+            } else if (--tenant.deficit == 0) {
+                active.pollFirst();
+                tenant.deficit = tenant.quantum;
+                active.addLast(tenant);
+            }
+            count--;
+            notFull.signal();
+            return task;
+        }
+
+        private static class TenantQueue {
+            private final String key;
+            private final int quantum;
+            private final ArrayDeque<RequestTask> tasks = new ArrayDeque<>();
+            private int deficit;
+
+            TenantQueue(String key, int quantum) {
+                this.key = key;
+                this.quantum = quantum;
+            }
+        }
+    }
+
+    /**
+     * Журнал упреждающей записи для документов, ожидающих отправки.
+     * Записи добавляются в отображенные в память сегменты без fsync, поэтому переживают падение JVM
+     * (но не операционной системы) и стоят порядка микросекунд. Когда отправка завершена - окончательным
+     * ответом сервера или отказом, о котором узнал вызывающий, - запись помечается подтвержденной,
+     * а сегмент без неподтвержденных записей удаляется. Поэтому неподтвержденными остаются только документы,
+     * которые еще ждут в очереди или отправляются.
+     * <p>
+     * Формат записи: {@code [int длина][byte статус][int длина подписи][подпись][тело документа]}.
+     * Длина пишется последней, поэтому недописанная запись при чтении воспринимается как конец сегмента.
+     * <p>
+     * Каталог журнала принадлежит одному экземпляру: он захватывает файл блокировки до закрытия,
+     * иначе второй экземпляр повторно отправил бы документы, которые первый еще отправляет.
+     */
+    public static class DocumentJournal implements AutoCloseable {
+        private static final byte PENDING = 0;
+        private static final byte ACKNOWLEDGED = 1;
+        private static final String SEGMENT_PREFIX = "journal-";
+        private static final String SEGMENT_SUFFIX = ".seg";
+        private static final String LOCK_FILE = "journal.lock";
+
+        private final Path directory;
+        private final int segmentSize;
+        private final Map<Integer, Segment> segments = new HashMap<>();
+        private final List<JournalRecord> pendingRecords = new ArrayList<>();
+        private final FileChannel lockChannel;
+        private Segment active;
+        private boolean closed;
+
+        /**
+         * Открывает журнал и восстанавливает неподтвержденные записи.
+         *
+         * @throws IOException если журнал не удалось открыть или каталог занят другим экземпляром
+         */
+        public DocumentJournal(Path directory, int segmentSize) throws IOException {
+            this.directory = directory;
+            this.segmentSize = segmentSize;
+            Files.createDirectories(directory);
+            this.lockChannel = lockDirectory(directory);
+            try {
+                int lastIndex = recover();
+                this.active = openSegment(lastIndex + 1, segmentSize);
+            } catch (IOException | RuntimeException e) {
+                lockChannel.close();
+                throw e;
+            }
+        }
+
+        private static FileChannel lockDirectory(Path directory) throws IOException {
+            FileChannel channel = FileChannel.open(directory.resolve(LOCK_FILE),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            try {
+                if (channel.tryLock() == null) {
+                    throw new IOException("Journal directory is used by another process: " + directory);
+                }
+                return channel;
+            } catch (OverlappingFileLockException e) {
+                channel.close();
+                throw new IOException("Journal directory is already open in this JVM: " + directory, e);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Возвращает записи, не подтвержденные до открытия журнала.
+         */
+        public List<JournalRecord> pendingRecords() {
+            return List.copyOf(pendingRecords);
+        }
+
+        /**
+         * Добавляет документ в журнал.
+         *
+         * @param body      сериализованный документ
+         * @param signature подпись документа
+         * @return идентификатор записи для последующего подтверждения
+         */
+        public synchronized long append(byte[] body, String signature) throws IOException {
+            if (closed) {
+                throw new IOException("Journal is closed");
+            }
+            byte[] signatureBytes = signature.getBytes(StandardCharsets.UTF_8);
+            int length = 1 + Integer.BYTES + signatureBytes.length + body.length;
+            // Оставляем место под нулевую длину, обозначающую конец сегмента.
+            int required = Integer.BYTES + length + Integer.BYTES;
+            if (active.position + required > active.buffer.capacity()) {
+                Segment full = active;
+                active = openSegment(full.index + 1, Math.max(segmentSize, required));
+                deleteIfDrained(full);
+            }
+            MappedByteBuffer buffer = active.buffer;
+            int offset = active.position;
+            buffer.put(offset + Integer.BYTES, PENDING);
+            buffer.putInt(offset + Integer.BYTES + 1, signatureBytes.length);
+            buffer.put(offset + 2 * Integer.BYTES + 1, signatureBytes);
+            buffer.put(offset + 2 * Integer.BYTES + 1 + signatureBytes.length, body);
+            buffer.putInt(offset, length);
+            active.position += Integer.BYTES + length;
+            active.pending++;
+            return recordId(active.index, offset);
+        }
+
+        /**
+         * Помечает запись подтвержденной.
+         *
+         * @param id идентификатор записи
+         */
+        public synchronized void acknowledge(long id) {
+            if (closed) {
+                // Запись останется неподтвержденной и будет отправлена повторно при следующем открытии.
+                return;
+            }
+            Segment segment = segments.get((int) (id >>> 32));
+            if (segment == null) {
+                return;
+            }
+            segment.buffer.put((int) id + Integer.BYTES, ACKNOWLEDGED);
+            segment.pending--;
+            deleteIfDrained(segment);
+        }
+
+        /**
+         * Сбрасывает сегменты на диск и освобождает каталог. Неподтвержденные записи остаются в журнале;
+         * отображения сегментов освобождаются сборщиком мусора.
+         */
+        @Override
+        public synchronized void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                for (Segment segment : segments.values()) {
+                    segment.buffer.force();
+                }
+                deleteIfDrained(active);
+            } finally {
+                segments.clear();
+                active = null;
+                lockChannel.close();
+            }
+        }
+
+        private int recover() throws IOException {
+            int lastIndex = -1;
+            try (var files = Files.list(directory)) {
+                List<Path> segmentFiles = files
+                        .filter(file -> file.getFileName().toString().startsWith(SEGMENT_PREFIX))
+                        .sorted()
+                        .collect(Collectors.toList());
+                for (Path file : segmentFiles) {
+                    String name = file.getFileName().toString();
+                    int index = Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+                    lastIndex = Math.max(lastIndex, index);
+                    Segment segment = openSegment(index, (int) Files.size(file));
+                    readPending(segment);
+                    deleteIfDrained(segment);
+                }
+            }
+            return lastIndex;
+        }
+
+        private void readPending(Segment segment) {
+            MappedByteBuffer buffer = segment.buffer;
+            int offset = 0;
+            while (offset + Integer.BYTES <= buffer.capacity()) {
+                int length = buffer.getInt(offset);
+                if (length <= 0) {
+                    break;
+                }
+                if (buffer.get(offset + Integer.BYTES) == PENDING) {
+                    int signatureLength = buffer.getInt(offset + Integer.BYTES + 1);
+                    byte[] signature = new byte[signatureLength];
+                    buffer.get(offset + 2 * Integer.BYTES + 1, signature);
+                    byte[] body = new byte[length - 1 - Integer.BYTES - signatureLength];
+                    buffer.get(offset + 2 * Integer.BYTES + 1 + signatureLength, body);
+                    pendingRecords.add(new JournalRecord(recordId(segment.index, offset),
+                            new String(signature, StandardCharsets.UTF_8), body));
+                    segment.pending++;
+                }
+                offset += Integer.BYTES + length;
+            }
+            segment.position = offset;
+        }
+
+        private Segment openSegment(int index, int size) throws IOException {
+            Path file = directory.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+            try (FileChannel channel = FileChannel.open(file,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                Segment segment = new Segment(index, file, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+                segments.put(index, segment);
+                return segment;
+            }
+        }
+
+        private void deleteIfDrained(Segment segment) {
+            if (segment.pending > 0 || segment == active && !closed) {
+                return;
+            }
+            segments.remove(segment.index);
+            try {
+                Files.deleteIfExists(segment.file);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Unable to delete journal segment " + segment.file, e);
+            }
+        }
+
+        private static long recordId(int segmentIndex, int offset) {
+            return ((long) segmentIndex << 32) | offset;
+        }
+
+        private static class Segment {
+            private final int index;
+            private final Path file;
+            private final MappedByteBuffer buffer;
+            private int position;
+            private int pending;
+
+            Segment(int index, Path file, MappedByteBuffer buffer) {
+                this.index = index;
+                this.file = file;
+                this.buffer = buffer;
+            }
+        }
+
+        /**
+         * Неподтвержденная запись журнала.
+         */
+        @Getter
+        public static class JournalRecord {
+            private final long id;
+            private final String signature;
+            private final byte[] body;
+
+            JournalRecord(long id, String signature, byte[] body) {
+                this.id = id;
+                this.signature = signature;
+                this.body = body;
+            }
+        }
+    }
+
+    /**
+     * Перечисление доступных алгоритмов ограничения частоты запросов.
+     */
+    public enum LimiterType {
+        SLIDING_WINDOW(SlidingWindowRateLimiter::new),
+        GCRA(GcraRateLimiter::new);
+
+        private final BiFunction<TimeUnit, Integer, RateLimiter> factory;
+
+        LimiterType(BiFunction<TimeUnit, Integer, RateLimiter> factory) {
+            this.factory = factory;
+        }
+
+        public RateLimiter create(TimeUnit timeUnit, int requestLimit) {
+            return factory.apply(timeUnit, requestLimit);
+        }
+    }
+
+    /**
+     * Ограничитель частоты запросов.
+     */
+    public interface RateLimiter {
+        /**
+         * Блокирует вызывающий поток до появления свободного разрешения и забирает его.
+         *
+         * @throws InterruptedException если поток был прерван во время ожидания
+         */
+        void acquire() throws InterruptedException;
+
+        /**
+         * Получает разрешение для запроса участника. По умолчанию участник не учитывается.
+         *
+         * @param tenant ИНН участника, может отсутствовать
+         * @throws InterruptedException если поток был прерван во время ожидания
+         */
+        default void acquire(String tenant) throws InterruptedException {
+            acquire();
+        }
+
+        /**
+         * Сообщает ограничителю ответ сервера. По умолчанию игнорируется.
+         *
+         * @param statusCode HTTP-статус ответа
+         * @param retryAfter значение заголовка Retry-After, если он был
+         */
+        default void onResponse(int statusCode, Optional<Duration> retryAfter) {
+        }
+    }
+
+    /**
+     * Ограничитель на основе журнала скользящего окна.
+     * Хранит моменты выдачи последних {@code requestLimit} разрешений в кольцевом буфере
+     * и выдает новое разрешение сразу, как только самое старое из них выходит за пределы окна.
+     * Таким образом в любом окне длиной {@code timeUnit} выдается не более {@code requestLimit} разрешений.
+     */
+    public static class SlidingWindowRateLimiter implements RateLimiter {
+        private final long windowNanos;
+        private final long[] grantTimes;
+        private final ReentrantLock lock = new ReentrantLock(true);
+        private int head;
+        private int granted;
+
+        public SlidingWindowRateLimiter(TimeUnit timeUnit, int requestLimit) {
+            this.windowNanos = timeUnit.toNanos(1);
+            this.grantTimes = new long[requestLimit];
+        }
+
+        @Override
+        public void acquire() throws InterruptedException {
+            lock.lockInterruptibly();
+            try {
+                while (true) {
+                    long now = System.nanoTime();
+                    if (granted < grantTimes.length) {
+                        grantTimes[(head + granted++) % grantTimes.length] = now;
+                        return;
+                    }
+                    long wait = grantTimes[head] + windowNanos - now;
+                    if (wait <= 0) {
+                        grantTimes[head] = now;
+                        head = (head + 1) % grantTimes.length;
+                        return;
+                    }
+                    // Очередь ожидающих честная, поэтому ждать под блокировкой безопасно:
+                    // следующее разрешение все равно достанется текущему владельцу.
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Ограничитель на основе алгоритма GCRA (Generic Cell Rate Algorithm).
+     * Состояние хранится в одном {@link AtomicLong} - теоретическом времени прибытия (TAT)
+     * следующего запроса, поэтому в отсутствие конкуренции разрешение выдается двумя операциями CAS.
+     * Запросы равномерно распределяются с интервалом {@code timeUnit / requestLimit},
+     * что гарантирует не более {@code requestLimit} запросов в любом окне длиной {@code timeUnit}.
+     * <p>
+     * Зарезервированный слот только распределяет пробуждения ожидающих потоков. Поток может проснуться
+     * позже своего слота и начать запрос ближе чем через интервал к следующему, поэтому сам запрос
+     * допускается вторым CAS по моменту последнего фактического начала: начала всегда разделены интервалом.
+     */
+    public static class GcraRateLimiter implements RateLimiter {
+        private final long emissionIntervalNanos;
+        private final AtomicLong theoreticalArrivalTime;
+        private final AtomicLong lastStart;
+
+        public GcraRateLimiter(TimeUnit timeUnit, int requestLimit) {
+            long windowNanos = timeUnit.toNanos(1);
+            // Округляем вверх, чтобы requestLimit интервалов не оказались короче окна.
+            this.emissionIntervalNanos = Math.max(1, (windowNanos + requestLimit - 1) / requestLimit);
+            long now = System.nanoTime();
+            this.theoreticalArrivalTime = new AtomicLong(now - emissionIntervalNanos);
+            this.lastStart = new AtomicLong(now - emissionIntervalNanos);
+        }
+
+        @Override
+        public void acquire() throws InterruptedException {
+            while (true) {
+                long now = System.nanoTime();
+                long tat = theoreticalArrivalTime.get();
+                long allowedAt = tat - now > 0 ? tat : now;
+                if (theoreticalArrivalTime.compareAndSet(tat, allowedAt + emissionIntervalNanos)) {
+                    // Слот зарезервирован; если он в будущем, дожидаемся его без повторных CAS.
+                    long wait = allowedAt - now;
+                    if (wait > 0) {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    }
+                    admit(lastStart, theoreticalArrivalTime, emissionIntervalNanos);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Допускает начало запроса не раньше чем через интервал после последнего фактического начала
+     * и записывает его момент тем же CAS. Опоздавший к своему слоту поток ждет здесь,
+     * а не занимает начало рядом со следующими слотами. Теоретическое время прибытия сдвигается
+     * за допущенное начало, чтобы новые потоки резервировали слоты после уже ожидающих, а не обгоняли их.
+     *
+     * @param lastStart              момент последнего начала по {@link System#nanoTime()}
+     * @param theoreticalArrivalTime теоретическое время прибытия следующего запроса
+     */
+    private static void admit(AtomicLong lastStart, AtomicLong theoreticalArrivalTime, long emissionIntervalNanos)
+            throws InterruptedException {
+        while (true) {
+            long now = System.nanoTime();
+            long last = lastStart.get();
+            long wait = last + emissionIntervalNanos - now;
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } else if (lastStart.compareAndSet(last, now)) {
+                theoreticalArrivalTime.accumulateAndGet(now + emissionIntervalNanos,
+                        (tat, next) -> tat - next < 0 ? next : tat);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Иерархический ограничитель: общий лимит CrptApi - родитель, у каждого участника свой дочерний лимит.
+     * Оба уровня - GCRA на атомарных теоретических временах прибытия, поэтому получение разрешения
+     * без ожидания - это поиск участника в {@link ConcurrentHashMap} и три CAS без блокировок.
+     * Дочерний лимит - гарантированная доля участника: в пределах доли запрос резервирует слот родителя,
+     * даже если для этого нужно подождать. Сверх доли участник занимает неиспользованную емкость,
+     * только если у родителя нет очереди зарезервированных слотов, поэтому заимствование
+     * задерживает участников в пределах их доли не больше чем на один интервал родителя.
+     * Общий лимит соблюдается всегда: каждое разрешение проходит через родителя, а начало запроса
+     * допускается по моменту последнего фактического начала, как в {@link GcraRateLimiter}.
+     * <p>
+     * Дочерний лимит, теоретическое время прибытия которого отстало от текущего больше чем на окно,
+     * ничем не отличается от нового, поэтому такие лимиты удаляются. Проход по участникам выполняется
+     * не чаще раза в окно при появлении нового участника, так что хранятся лимиты только участников,
+     * отправлявших запросы в последние два окна.
+     */
+    public static class HierarchicalRateLimiter implements RateLimiter {
+        private static final String DEFAULT_TENANT = "";
+        /**
+         * Теоретическое время прибытия удаленного дочернего лимита.
+         * Поток, получивший такой лимит, ищет участника заново.
+         */
+        private static final long RETIRED = Long.MIN_VALUE;
+
+        private final long windowNanos;
+        private final long emissionIntervalNanos;
+        private final AtomicLong theoreticalArrivalTime;
+        private final AtomicLong lastStart;
+        private final Map<String, Integer> tenantLimits;
+        private final int defaultTenantLimit;
+        private final ConcurrentHashMap<String, TenantLimit> tenants = new ConcurrentHashMap<>();
+        private final AtomicLong nextEviction;
+
+        /**
+         * @param requestLimit       общий лимит запросов за окно
+         * @param tenantLimits       лимиты участников по ИНН
+         * @param defaultTenantLimit лимит участников, не указанных в {@code tenantLimits}
+         */
+        public HierarchicalRateLimiter(TimeUnit timeUnit, int requestLimit, Map<String, Integer> tenantLimits,
+                                       int defaultTenantLimit) {
+            this.windowNanos = timeUnit.toNanos(1);
+            this.emissionIntervalNanos = intervalNanos(requestLimit);
+            long now = System.nanoTime();
+            this.theoreticalArrivalTime = new AtomicLong(now - emissionIntervalNanos);
+            this.lastStart = new AtomicLong(now - emissionIntervalNanos);
+            this.nextEviction = new AtomicLong(now + windowNanos);
+            this.tenantLimits = Map.copyOf(tenantLimits);
+            this.defaultTenantLimit = defaultTenantLimit;
+        }
+
+        @Override
+        public void acquire() throws InterruptedException {
+            acquire(null);
+        }
+
+        @Override
+        public void acquire(String tenant) throws InterruptedException {
+            String key = tenant == null ? DEFAULT_TENANT : tenant;
+            TenantLimit limit = tenantLimit(key);
+            while (true) {
+                long now = System.nanoTime();
+                long tenantTat = limit.theoreticalArrivalTime.get();
+                if (tenantTat == RETIRED) {
+                    limit = tenantLimit(key);
+                } else if (tenantTat - now <= 0) {
+                    // В пределах доли: резервируем слот участника, затем слот родителя.
+                    if (limit.theoreticalArrivalTime.compareAndSet(tenantTat, now + limit.emissionIntervalNanos)) {
+                        reserveParent();
+                        return;
+                    }
+                } else if (tryBorrow(now)) {
+                    admit(lastStart, theoreticalArrivalTime, emissionIntervalNanos);
+                    return;
+                } else {
+                    // Слот не резервируется: ждем либо своей доли, либо освобождения родителя,
+                    // чтобы не пропустить емкость, которую можно занять раньше.
+                    long parentFreeAt = theoreticalArrivalTime.get();
+                    TimeUnit.NANOSECONDS.sleep(Math.max(1, Math.min(tenantTat, parentFreeAt) - now));
+                }
+            }
+        }
+
+        /**
+         * Количество участников, для которых сейчас хранится дочерний лимит.
+         */
+        public int getTenantCount() {
+            return tenants.size();
+        }
+
+        private TenantLimit tenantLimit(String key) {
+            TenantLimit limit = tenants.get(key);
+            if (limit == null) {
+                limit = tenants.computeIfAbsent(key, tenant ->
+                        new TenantLimit(intervalNanos(tenantLimits.getOrDefault(tenant, defaultTenantLimit))));
+                evictIdleTenants();
+            }
+            return limit;
+        }
+
+        /**
+         * Удаляет дочерние лимиты, простаивающие больше окна. Лимит сначала помечается {@link #RETIRED} через CAS,
+         * поэтому поток, уже получивший его, не зарезервирует слот в удаленном лимите мимо нового.
+         */
+        private void evictIdleTenants() {
+            long now = System.nanoTime();
+            long evictAt = nextEviction.get();
+            if (evictAt - now > 0 || !nextEviction.compareAndSet(evictAt, now + windowNanos)) {
+                return;
+            }
+            tenants.forEach((key, limit) -> {
+                long tat = limit.theoreticalArrivalTime.get();
+                if (tat != RETIRED && now - tat > windowNanos
+                        && limit.theoreticalArrivalTime.compareAndSet(tat, RETIRED)) {
+                    tenants.remove(key, limit);
+                }
+            });
+        }
+
+        private void reserveParent() throws InterruptedException {
+            while (true) {
+                long now = System.nanoTime();
+                long tat = theoreticalArrivalTime.get();
+                long allowedAt = tat - now > 0 ? tat : now;
+                if (theoreticalArrivalTime.compareAndSet(tat, allowedAt + emissionIntervalNanos)) {
+                    long wait = allowedAt - now;
+                    if (wait > 0) {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    }
+                    admit(lastStart, theoreticalArrivalTime, emissionIntervalNanos);
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Занимает слот родителя сверх доли участника, если он свободен прямо сейчас.
+         */
+        private boolean tryBorrow(long now) {
+            long tat;
+            while ((tat = theoreticalArrivalTime.get()) - now <= 0) {
+                if (theoreticalArrivalTime.compareAndSet(tat, now + emissionIntervalNanos)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private long intervalNanos(int limit) {
+            return Math.max(1, (windowNanos + limit - 1) / limit);
+        }
+
+        private static class TenantLimit {
+            private final long emissionIntervalNanos;
+            private final AtomicLong theoreticalArrivalTime;
+
+            TenantLimit(long emissionIntervalNanos) {
+                this.emissionIntervalNanos = emissionIntervalNanos;
+                this.theoreticalArrivalTime = new AtomicLong(System.nanoTime() - emissionIntervalNanos);
+            }
+        }
+    }
+
+    /**
+     * Ограничитель, состояние которого хранится в отображенном в память файле, общем для всех процессов
+     * на одной машине. Это тот же GCRA, что и {@link GcraRateLimiter}, но теоретическое время прибытия
+     * и момент последнего начала обновляются CAS через {@link VarHandle} прямо в отображенной памяти,
+     * поэтому все процессы, открывшие файл, делят один строгий лимит, а получение разрешения
+     * без ожидания стоит двух CAS.
+     * <p>
+     * {@link System#nanoTime()} у каждого процесса отсчитывается от своего начала, поэтому время
+     * хранится в наносекундах от эпохи по {@link Instant#now()}. Лимит строгий, только пока часы машины
+     * идут плавно. Теоретическое время прибытия и момент последнего начала никогда не сдвигаются назад,
+     * поэтому скачок часов назад лишь задерживает запросы на величину скачка. Скачок вперед, например
+     * шаговая коррекция NTP, выглядит как прошедшее время: запрос в одном процессе может начаться
+     * раньше чем через интервал после начала в другом, и в окне, на которое пришелся скачок,
+     * запросов может оказаться больше лимита. Где это недопустимо, часы нужно синхронизировать
+     * только плавной подстройкой частоты, без шагов.
+     */
+    public static class SharedMemoryRateLimiter implements RateLimiter {
+        private static final long MAGIC = 0x4352505452415445L;
+        private static final int MAGIC_OFFSET = 0;
+        private static final int INTERVAL_OFFSET = Long.BYTES;
+        private static final int TAT_OFFSET = 2 * Long.BYTES;
+        private static final int LAST_START_OFFSET = 3 * Long.BYTES;
+        private static final int FILE_SIZE = 4 * Long.BYTES;
+        private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+        private final MappedByteBuffer state;
+        private final long emissionIntervalNanos;
+
+        /**
+         * Открывает файл состояния или создает его. Все процессы должны использовать одинаковый лимит.
+         *
+         * @param file файл состояния
+         * @throws IOException если файл не удалось открыть
+         * @throws IllegalStateException если файл создан с другим лимитом
+         */
+        public SharedMemoryRateLimiter(Path file, TimeUnit timeUnit, int requestLimit) throws IOException {
+            long windowNanos = timeUnit.toNanos(1);
+            this.emissionIntervalNanos = Math.max(1, (windowNanos + requestLimit - 1) / requestLimit);
+            Path parent = file.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                FileLock lock = channel.lock();
+                try {
+                        this.state = channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+                    if ((long) LONGS.getVolatile(state, MAGIC_OFFSET) != MAGIC) {
+                        LONGS.setVolatile(state, INTERVAL_OFFSET, emissionIntervalNanos);
+                        LONGS.setVolatile(state, TAT_OFFSET, epochNanos() - emissionIntervalNanos);
+                        LONGS.setVolatile(state, LAST_START_OFFSET, epochNanos() - emissionIntervalNanos);
+                        LONGS.setVolatile(state, MAGIC_OFFSET, MAGIC);
+                        state.force();
+                    } else if ((long) LONGS.getVolatile(state, INTERVAL_OFFSET) != emissionIntervalNanos) {
+                        throw new IllegalStateException("Shared rate limit file " + file + " uses a different limit");
+                    }
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+
+        @Override
+        public void acquire() throws InterruptedException {
+            while (true) {
+                long now = epochNanos();
+                long tat = (long) LONGS.getVolatile(state, TAT_OFFSET);
+                long allowedAt = tat - now > 0 ? tat : now;
+                if (LONGS.compareAndSet(state, TAT_OFFSET, tat, allowedAt + emissionIntervalNanos)) {
+                    long wait = allowedAt - now;
+                    if (wait > 0) {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    }
+                    admit();
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Допускает начало запроса не раньше чем через интервал после последнего фактического начала
+         * в любом из процессов и сдвигает за него теоретическое время прибытия, как {@link GcraRateLimiter}.
+         */
+        private void admit() throws InterruptedException {
+            while (true) {
+                long now = epochNanos();
+                long last = (long) LONGS.getVolatile(state, LAST_START_OFFSET);
+                long wait = last + emissionIntervalNanos - now;
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } else if (LONGS.compareAndSet(state, LAST_START_OFFSET, last, now)) {
+                    long tat;
+                    do {
+                        tat = (long) LONGS.getVolatile(state, TAT_OFFSET);
+                    } while (tat - (now + emissionIntervalNanos) < 0
+                            && !LONGS.compareAndSet(state, TAT_OFFSET, tat, now + emissionIntervalNanos));
+                    return;
+                }
+            }
+        }
+
+        private static long epochNanos() {
+            Instant now = Instant.now();
+            return now.getEpochSecond() * 1_000_000_000L + now.getNano();
+        }
+    }
+
+    /**
+     * Координатор квоты кластера: выдает узлам аренды разрешений из общего лимита.
+     * Реализация должна гарантировать, что за любое окно узлы кластера не смогут использовать
+     * больше разрешений, чем позволяет лимит, при условии что узел использует разрешения аренды
+     * только в течение ее срока и сообщает о ее завершении.
+     */
+    public interface QuotaCoordinator {
+        /**
+         * Выдает аренду не более чем на {@code permits} разрешений. Если свободных разрешений нет,
+         * возвращает аренду без разрешений с временем, через которое стоит повторить запрос.
+         *
+         * @param nodeId  идентификатор узла
+         * @param permits желаемое количество разрешений
+         */
+        QuotaLease acquireLease(String nodeId, int permits);
+
+        /**
+         * Завершает аренду досрочно или по истечении срока.
+         *
+         * @param lease аренда
+         * @param used  количество использованных разрешений
+         */
+        void releaseLease(QuotaLease lease, int used);
+    }
+
+    /**
+     * Аренда разрешений, выданная {@link QuotaCoordinator}.
+     */
+    @Builder
+    @Getter
+    public static class QuotaLease {
+        private final long id;
+        /**
+         * Количество разрешений; {@code 0}, если свободных разрешений нет.
+         */
+        private final int permits;
+        /**
+         * Срок аренды, отсчитываемый узлом от момента отправки запроса аренды.
+         */
+        private final Duration ttl;
+        /**
+         * Через сколько повторить запрос, если разрешений не выдано.
+         */
+        private final Duration retryAfter;
+    }
+
+    /**
+     * Эталонный координатор квоты внутри процесса, для тестов и узлов одной JVM.
+     * Разрешения аренды учитываются в лимите с момента выдачи и еще одно окно после ее завершения,
+     * потому что узел мог использовать их в любой момент срока аренды. При досрочном завершении
+     * аренда сокращается до момента завершения и до фактически использованных разрешений.
+     */
+    public static class InProcessQuotaCoordinator implements QuotaCoordinator {
+        private final long windowNanos;
+        private final int requestLimit;
+        private final Duration leaseTtl;
+        private final Map<Long, LeaseRecord> leases = new LinkedHashMap<>();
+        private long nextId;
+
+        /**
+         * @param requestLimit лимит кластера за окно
+         * @param leaseTtl     срок одной аренды
+         */
+        public InProcessQuotaCoordinator(TimeUnit timeUnit, int requestLimit, Duration leaseTtl) {
+            this.windowNanos = timeUnit.toNanos(1);
+            this.requestLimit = requestLimit;
+            this.leaseTtl = leaseTtl;
+        }
+
+        @Override
+        public synchronized QuotaLease acquireLease(String nodeId, int permits) {
+            long now = System.nanoTime();
+            int accounted = 0;
+            long freedAt = Long.MAX_VALUE;
+            for (Iterator<LeaseRecord> it = leases.values().iterator(); it.hasNext(); ) {
+                LeaseRecord lease = it.next();
+                long releasedAt = lease.validUntil + windowNanos;
+                if (releasedAt - now <= 0) {
+                    it.remove();
+                } else {
+                    accounted += lease.permits;
+                    freedAt = Math.min(freedAt, releasedAt);
+                }
+            }
+            int granted = Math.min(permits, requestLimit - accounted);
+            if (granted <= 0) {
+                return QuotaLease.builder()
+                        .id(-1)
+                        .retryAfter(Duration.ofNanos(Math.max(1, freedAt - now)))
+                        .build();
+            }
+            long id = nextId++;
+            leases.put(id, new LeaseRecord(granted, now + leaseTtl.toNanos()));
+            return QuotaLease.builder()
+                    .id(id)
+                    .permits(granted)
+                    .ttl(leaseTtl)
+                    .build();
+        }
+
+        @Override
+        public synchronized void releaseLease(QuotaLease lease, int used) {
+            LeaseRecord record = leases.get(lease.id);
+            if (record != null) {
+                record.permits = Math.min(record.permits, Math.max(0, used));
+                long now = System.nanoTime();
+                if (record.validUntil - now > 0) {
+                    record.validUntil = now;
+                }
+            }
+        }
+
+        private static class LeaseRecord {
+            private int permits;
+            private long validUntil;
+
+            LeaseRecord(int permits, long validUntil) {
+                this.permits = permits;
+                this.validUntil = validUntil;
+            }
+        }
+    }
+
+    /**
+     * Ограничитель узла кластера, берущий разрешения в аренду у {@link QuotaCoordinator}.
+     * Пока аренда действует, разрешение получается одним CAS без обращения к координатору;
+     * к координатору обращается один поток, когда аренда исчерпана или истекла.
+     * Срок аренды отсчитывается от момента отправки запроса, поэтому задержка сети
+     * только сокращает срок использования разрешений, но не выводит его за пределы учтенного координатором.
+     */
+    public static class LeasingRateLimiter implements RateLimiter {
+        private final QuotaCoordinator coordinator;
+        private final String nodeId;
+        private final int leaseSize;
+        private final ReentrantLock renewLock = new ReentrantLock();
+        private volatile LocalLease lease;
+
+        /**
+         * @param nodeId    идентификатор узла
+         * @param leaseSize количество разрешений, запрашиваемых за одну аренду
+         */
+        public LeasingRateLimiter(QuotaCoordinator coordinator, String nodeId, int leaseSize) {
+            this.coordinator = coordinator;
+            this.nodeId = nodeId;
+            this.leaseSize = leaseSize;
+        }
+
+        @Override
+        public void acquire() throws InterruptedException {
+            while (true) {
+                LocalLease current = lease;
+                if (current != null && current.expiresAt - System.nanoTime() > 0) {
+                    int remaining = current.remaining.get();
+                    if (remaining > 0) {
+                        if (current.remaining.compareAndSet(remaining, remaining - 1)) {
+                            return;
+                        }
+                        continue;
+                    }
+                }
+                renew(current);
+            }
+        }
+
+        /**
+         * Завершает исчерпанную или истекшую аренду и берет новую, если этого еще не сделал другой поток.
+         */
+        private void renew(LocalLease stale) throws InterruptedException {
+            renewLock.lockInterruptibly();
+            try {
+                if (lease != stale) {
+                    return;
+                }
+                if (stale != null) {
+                    int unused = Math.max(0, stale.remaining.getAndSet(0));
+                    coordinator.releaseLease(stale.lease, stale.lease.getPermits() - unused);
+                    lease = null;
+                }
+                while (true) {
+                    long requestedAt = System.nanoTime();
+                    QuotaLease granted = coordinator.acquireLease(nodeId, leaseSize);
+                    if (granted.getPermits() > 0) {
+                        lease = new LocalLease(granted, requestedAt + granted.getTtl().toNanos());
+                        return;
+                    }
+                    TimeUnit.NANOSECONDS.sleep(granted.getRetryAfter().toNanos());
+                }
+            } finally {
+                renewLock.unlock();
+            }
+        }
+
+        private static class LocalLease {
+            private final QuotaLease lease;
+            private final long expiresAt;
+            private final AtomicInteger remaining;
+
+            LocalLease(QuotaLease lease, long expiresAt) {
+                this.lease = lease;
+                this.expiresAt = expiresAt;
+                this.remaining = new AtomicInteger(lease.getPermits());
+            }
+        }
+    }
+
+    /**
+     * Адаптивный ограничитель по схеме AIMD поверх жесткого ограничителя.
+     * Лимит из конструктора CrptApi остается потолком и всегда соблюдается вложенным ограничителем,
+     * а текущая частота регулируется по ответам сервера не чаще раза за окно:
+     * <ul>
+     *     <li>на 429 частота опускается до количества запросов, принятых сервером за последнее окно, -
+     *     это оценка квоты снизу, поэтому частота сходится к ней за один шаг, а не за несколько пауз;</li>
+     *     <li>на 503, а также на 429 без принятых запросов частота уменьшается вдвое, как в классическом AIMD:
+     *     при нескольких клиентах на одной квоте это сводит их к равным долям;</li>
+     *     <li>после {@code currentRate} успешных ответов подряд частота увеличивается на один запрос за окно,
+     *     а рядом с частотой последнего 429 - только после {@value #PROBE_WINDOWS} окон без ошибок,
+     *     потому что каждая лишняя проба стоит паузы Retry-After.</li>
+     * </ul>
+     * На время Retry-After новые разрешения не выдаются, в том числе потокам, уже ожидающим своего слота.
+     */
+    public static class AdaptiveRateLimiter implements RateLimiter {
+        private static final int TOO_MANY_REQUESTS = 429;
+        private static final int SERVICE_UNAVAILABLE = 503;
+        private static final double DECREASE_FACTOR = 0.5;
+        private static final int PROBE_WINDOWS = 10;
+        /**
+         * Запас к интервалу между запросами, чтобы разброс сетевых задержек не переносил запрос в предыдущее окно сервера.
+         */
+        private static final double PACING_MARGIN = 0.02;
+
+        private final RateLimiter hardLimiter;
+        private final long windowNanos;
+        private final int maxRate;
+        private final AtomicLong theoreticalArrivalTime = new AtomicLong(System.nanoTime());
+        private final AtomicLong pausedUntil = new AtomicLong(System.nanoTime());
+        /**
+         * Моменты успешных ответов за последнее окно.
+         */
+        private final ArrayDeque<Long> acceptedTimes = new ArrayDeque<>();
+        private volatile long emissionIntervalNanos;
+        private int currentRate;
+        private int throttledRate = Integer.MAX_VALUE;
+        private int successes;
+        private long lastDecreaseAt;
+
+        public AdaptiveRateLimiter(RateLimiter hardLimiter, TimeUnit timeUnit, int requestLimit) {
+            this.hardLimiter = hardLimiter;
+            this.windowNanos = timeUnit.toNanos(1);
+            this.maxRate = requestLimit;
+            this.lastDecreaseAt = System.nanoTime() - windowNanos;
+            setRate(requestLimit);
+        }
+
+        @Override
+        public void acquire() throws InterruptedException {
+            pace();
+            hardLimiter.acquire();
+        }
+
+        @Override
+        public void acquire(String tenant) throws InterruptedException {
+            pace();
+            hardLimiter.acquire(tenant);
+        }
+
+        private void pace() throws InterruptedException {
+            while (true) {
+                long now = System.nanoTime();
+                long pause = pausedUntil.get() - now;
+                if (pause > 0) {
+                    TimeUnit.NANOSECONDS.sleep(pause);
+                    continue;
+                }
+                long tat = theoreticalArrivalTime.get();
+                long allowedAt = tat - now > 0 ? tat : now;
+                if (theoreticalArrivalTime.compareAndSet(tat, allowedAt + emissionIntervalNanos)) {
+                    long wait = allowedAt - now;
+                    if (wait > 0) {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    }
+                    // Если пока поток ждал слота, сервер попросил паузу, слот не используется.
+                    if (pausedUntil.get() - System.nanoTime() <= 0) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        @Override
+        public synchronized void onResponse(int statusCode, Optional<Duration> retryAfter) {
+            long now = System.nanoTime();
+            while (!acceptedTimes.isEmpty() && now - acceptedTimes.peekFirst() >= windowNanos) {
+                acceptedTimes.pollFirst();
+            }
+            if (statusCode == TOO_MANY_REQUESTS || statusCode == SERVICE_UNAVAILABLE) {
+                retryAfter.ifPresent(delay -> pausedUntil.accumulateAndGet(now + delay.toNanos(), Math::max));
+                // Ответы на запросы, отправленные до снижения, не должны снижать частоту повторно.
+                if (now - lastDecreaseAt >= windowNanos) {
+                    lastDecreaseAt = now;
+                    int accepted = acceptedTimes.size();
+                    // Больше принятого за окно сервер, скорее всего, не пропустит: выше этого пробовать медленно.
+                    throttledRate = accepted > 0 ? Math.min(currentRate, accepted + 1) : currentRate;
+                    int rate = statusCode == TOO_MANY_REQUESTS && accepted > 0
+                            ? Math.min(currentRate - 1, accepted)
+                            : (int) (currentRate * DECREASE_FACTOR);
+                    setRate(Math.max(1, rate));
+                }
+                successes = 0;
+            } else if (statusCode == 200) {
+                acceptedTimes.addLast(now);
+                int required = currentRate + 1 >= throttledRate ? currentRate * PROBE_WINDOWS : currentRate;
+                if (currentRate < maxRate && ++successes >= required) {
+                    successes = 0;
+                    setRate(currentRate + 1);
+                }
+            }
+        }
+
+        /**
+         * Текущая допустимая частота, запросов за окно.
+         */
+        public synchronized int getCurrentRate() {
+            return currentRate;
+        }
+
+        private void setRate(int rate) {
+            currentRate = rate;
+            emissionIntervalNanos = Math.max(1, (long) Math.ceil(windowNanos * (1 + PACING_MARGIN) / rate));
+        }
+    }
+
+    /**
+     * Ограничитель количества одновременно выполняющихся запросов, независимый от ограничения частоты.
+     * Медленные ответы сервера занимают разрешения этого ограничителя, но не снижают частоту отправки,
+     * пока не исчерпан лимит одновременных запросов.
+     */
+    public static class InFlightLimiter {
+        private final Semaphore permits;
+        private final int maxInFlight;
+
+        public InFlightLimiter(int maxInFlight) {
+            if (maxInFlight <= 0) {
+                throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+            }
+            this.maxInFlight = maxInFlight;
+            this.permits = new Semaphore(maxInFlight);
+        }
+
+        /**
+         * Ожидает свободное место и возвращает разрешение, которое нужно освободить по завершении запроса.
+         */
+        public Permit acquire() throws InterruptedException {
+            permits.acquire();
+            return new Permit();
+        }
+
+        /**
+         * Количество выполняющихся запросов.
+         */
+        public int getInFlight() {
+            return maxInFlight - permits.availablePermits();
+        }
+
+        /**
+         * Разрешение с единственным владельцем: повторное освобождение ничего не делает,
+         * поэтому количество разрешений не может вырасти сверх лимита.
+         */
+        public class Permit {
+            private final AtomicBoolean released = new AtomicBoolean();
+
+            public void release() {
+                if (released.compareAndSet(false, true)) {
+                    permits.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Ограничитель-обертка, проверяющий инвариант: за любое окно начинается не более requestLimit запросов.
+     * Моменты выдачи разрешений записываются в кольцевой буфер под блокировкой, поэтому упорядочены;
+     * нарушение фиксируется, если между текущим разрешением и выданным requestLimit разрешений назад
+     * прошло меньше окна за вычетом допуска на вытеснение потока между выдачей и записью.
+     * По умолчанию допуск - сотая доля окна, поэтому проверка строга для окна любой длины.
+     */
+    public static class CheckedRateLimiter implements RateLimiter {
+        private static final int DEFAULT_TOLERANCE_DIVISOR = 100;
+
+        private final RateLimiter delegate;
+        private final long windowNanos;
+        private final long toleranceNanos;
+        private final long[] grantTimes;
+        private final Runnable onViolation;
+        private final LongAdder violations = new LongAdder();
+        private int next;
+        private long granted;
+
+        public CheckedRateLimiter(RateLimiter delegate, TimeUnit timeUnit, int requestLimit, Runnable onViolation) {
+            this(delegate, timeUnit, requestLimit,
+                    Duration.ofNanos(timeUnit.toNanos(1) / DEFAULT_TOLERANCE_DIVISOR), onViolation);
+        }
+
+        /**
+         * @param tolerance   допуск на задержку между выдачей разрешения и его записью, меньше окна
+         * @param onViolation действие при нарушении инварианта
+         */
+        public CheckedRateLimiter(RateLimiter delegate, TimeUnit timeUnit, int requestLimit, Duration tolerance,
+                                  Runnable onViolation) {
+            this.delegate = delegate;
+            this.windowNanos = timeUnit.toNanos(1);
+            this.toleranceNanos = tolerance.toNanos();
+            if (toleranceNanos < 0 || toleranceNanos >= windowNanos) {
+                throw new IllegalArgumentException("tolerance must be shorter than the window: " + tolerance);
+            }
+            this.grantTimes = new long[requestLimit];
+            this.onViolation = onViolation;
+        }
+
+        @Override
+        public void acquire() throws InterruptedException {
+            delegate.acquire();
+            verify();
+        }
+
+        @Override
+        public void acquire(String tenant) throws InterruptedException {
+            delegate.acquire(tenant);
+            verify();
+        }
+
+        private void verify() {
+            if (!record()) {
+                violations.increment();
+                onViolation.run();
+            }
+        }
+
+        @Override
+        public void onResponse(int statusCode, Optional<Duration> retryAfter) {
+            delegate.onResponse(statusCode, retryAfter);
+        }
+
+        private synchronized boolean record() {
+            long now = System.nanoTime();
+            boolean valid = granted < grantTimes.length || now - grantTimes[next] >= windowNanos - toleranceNanos;
+            grantTimes[next] = now;
+            next = (next + 1) % grantTimes.length;
+            granted++;
+            return valid;
+        }
+
+        /**
+         * Количество выданных разрешений.
+         */
+        public synchronized long getGranted() {
+            return granted;
+        }
+
+        /**
+         * Количество нарушений инварианта.
+         */
+        public long getViolations() {
+            return violations.sum();
+        }
+    }
+
+    /**
+     * Политика повторных попыток отправки документа.
+     * Задержка между попытками растет экспоненциально с декоррелированным джиттером
+     * и не бывает меньше значения заголовка Retry-After.
+     */
+    @Builder
+    @Getter
+    public static class RetryPolicy {
+        /**
+         * Максимальное количество попыток, включая первую.
+         */
+        @Builder.Default
+        private final int maxAttempts = 3;
+        /**
+         * Минимальная задержка перед повтором.
+         */
+        @Builder.Default
+        private final Duration baseDelay = Duration.ofMillis(100);
+        /**
+         * Максимальная задержка перед повтором.
+         */
+        @Builder.Default
+        private final Duration maxDelay = Duration.ofSeconds(10);
+        /**
+         * Коды ответа, после которых запрос повторяется. Ошибки ввода-вывода повторяются всегда.
+         */
+        @Builder.Default
+        private final Set<Integer> retryableStatuses = Set.of(429, 500, 502, 503, 504);
+        /**
+         * Доля повторов от количества первых попыток, которую разрешает бюджет.
+         */
+        @Builder.Default
+        private final double budgetRatio = 0.2;
+        /**
+         * Максимальный запас бюджета в повторах. Изначально бюджет заполнен.
+         */
+        @Builder.Default
+        private final int budgetCapacity = 100;
+    }
+
+    /**
+     * Принимает решение о повторе и планирует его на {@link TimerWheel}.
+     * Бюджет повторов пополняется каждой первой попыткой на {@link RetryPolicy#getBudgetRatio()}
+     * и расходуется повторами, поэтому при массовых отказах сервера повторы не множат нагрузку.
+     */
+    public static class RetryScheduler implements AutoCloseable {
+        private static final long TOKEN = 1000;
+        /**
+         * Через сколько повторить постановку в очередь, если в ней не было места.
+         */
+        private static final long REQUEUE_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+        private final RetryPolicy policy;
+        private final TimerWheel timer;
+        private final long depositPerRequest;
+        private final long budgetCapacity;
+        private final long baseDelayNanos;
+        private final long maxDelayNanos;
+        /**
+         * Запас бюджета в тысячных долях повтора.
+         */
+        private final AtomicLong budget;
+
+        public RetryScheduler(RetryPolicy policy) {
+            this.policy = policy;
+            this.timer = new TimerWheel();
+            this.depositPerRequest = Math.round(policy.budgetRatio * TOKEN);
+            this.budgetCapacity = policy.budgetCapacity * TOKEN;
+            this.baseDelayNanos = policy.baseDelay.toNanos();
+            this.maxDelayNanos = Math.max(baseDelayNanos, policy.maxDelay.toNanos());
+            this.budget = new AtomicLong(budgetCapacity);
+        }
+
+        /**
+         * Учитывает первую попытку отправки, пополняя бюджет повторов.
+         */
+        void recordRequest() {
+            budget.getAndUpdate(balance -> Math.min(budgetCapacity, balance + depositPerRequest));
+        }
+
+        /**
+         * Возвращает задержку перед следующей попыткой или {@code -1}, если повтор не нужен
+         * либо запрещен ограничением попыток или бюджетом.
+         *
+         * @param attempt            номер завершившейся попытки, начиная с нуля
+         * @param previousDelayNanos задержка перед завершившейся попыткой
+         */
+        long nextDelayNanos(int attempt, long previousDelayNanos, CreateDocumentResult result, Throwable error) {
+            if (attempt + 1 >= policy.maxAttempts || !isRetryable(result, error) || !withdraw()) {
+                return -1;
+            }
+            long upper = Math.min(maxDelayNanos, Math.max(baseDelayNanos, previousDelayNanos) * 3);
+            long delay = upper > baseDelayNanos
+                    ? ThreadLocalRandom.current().nextLong(baseDelayNanos, upper + 1)
+                    : baseDelayNanos;
+            if (result != null && result.getRetryAfter() != null) {
+                delay = Math.max(delay, result.getRetryAfter().toNanos());
+            }
+            return delay;
+        }
+
+        /**
+         * Возвращает задачу в очередь запросов через заданное время.
+         * Поток таймера общий для всех повторов и не должен блокироваться, поэтому задача только предлагается
+         * очереди: если места нет, попытка повторяется через {@link #REQUEUE_DELAY_NANOS}, а не ждет его.
+         * После закрытия планировщика задача отклоняется.
+         */
+        void requeue(RequestQueue queue, Supplier<RequestTask> task, long delayNanos) {
+            schedule(new Requeue(queue, task), delayNanos);
+        }
+
+        private void schedule(Requeue requeue, long delayNanos) {
+            try {
+                timer.schedule(requeue, delayNanos);
+            } catch (RejectedExecutionException e) {
+                requeue.cancel();
+            }
+        }
+
+        private boolean isRetryable(CreateDocumentResult result, Throwable error) {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause() : error;
+                return cause instanceof IOException;
+            }
+            return policy.retryableStatuses.contains(result.getStatusCode());
+        }
+
+        private boolean withdraw() {
+            long balance;
+            do {
+                balance = budget.get();
+                if (balance < TOKEN) {
+                    return false;
+                }
+            } while (!budget.compareAndSet(balance, balance - TOKEN));
+            return true;
+        }
+
+        /**
+         * Останавливает таймер и отклоняет запланированные повторы с {@link CancellationException},
+         * чтобы их результаты не остались незавершенными.
+         */
+        @Override
+        public void close() {
+            for (Runnable task : timer.shutdownNow()) {
+                if (task instanceof Requeue) {
+                    ((Requeue) task).cancel();
+                }
+            }
+        }
+
+        /**
+         * Отложенная постановка задачи в очередь запросов.
+         */
+        private class Requeue implements Runnable {
+            private final RequestQueue queue;
+            private final Supplier<RequestTask> task;
+
+            Requeue(RequestQueue queue, Supplier<RequestTask> task) {
+                this.queue = queue;
+                this.task = task;
+            }
+
+            @Override
+            public void run() {
+                RequestTask requestTask = task.get();
+                if (!queue.offer(requestTask)) {
+                    schedule(new Requeue(queue, () -> requestTask), REQUEUE_DELAY_NANOS);
+                }
+            }
+
+            void cancel() {
+                task.get().reject(new CancellationException("Retry scheduler is closed"));
+            }
+        }
+    }
+
+    /**
+     * Хешированное колесо таймеров. Отложенные задачи обслуживает один поток,
+     * который просыпается раз в тик, поэтому ожидание повтора не занимает отдельный поток.
+     * Задачи добавляются в неблокирующую очередь и раскладываются по ячейкам колеса самим потоком таймера.
+     */
+    public static class TimerWheel implements AutoCloseable {
+        private static final long DEFAULT_TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+        private static final int DEFAULT_WHEEL_SIZE = 512;
+
+        private final long tickNanos;
+        private final int mask;
+        private final List<ArrayDeque<Timeout>> wheel;
+        private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+        private final long startTime = System.nanoTime();
+        private final Thread worker;
+        private volatile boolean running = true;
+        private long tick;
+
+        public TimerWheel() {
+            this(DEFAULT_TICK_NANOS, DEFAULT_WHEEL_SIZE);
+        }
+
+        /**
+         * @param tickNanos длительность тика; задачи выполняются с точностью до тика
+         * @param wheelSize количество ячеек колеса, округляется вверх до степени двойки
+         */
+        public TimerWheel(long tickNanos, int wheelSize) {
+            this.tickNanos = tickNanos;
+            int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+            this.mask = size - 1;
+            this.wheel = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                wheel.add(new ArrayDeque<>());
+            }
+            this.worker = new Thread(this::run, "crpt-api-timer");
+            worker.setDaemon(true);
+            worker.start();
+        }
+
+        /**
+         * Планирует выполнение задачи через заданное время. Задача выполняется на потоке таймера,
+         * поэтому должна быть короткой.
+         *
+         * @throws RejectedExecutionException если таймер остановлен
+         */
+        public void schedule(Runnable task, long delayNanos) {
+            Timeout timeout = new Timeout(task, System.nanoTime() + Math.max(0, delayNanos));
+            pending.add(timeout);
+            // Задачу, добавленную одновременно с остановкой, возвращает либо shutdownNow, либо это исключение.
+            if (!running && pending.remove(timeout)) {
+                throw new RejectedExecutionException("Timer is stopped");
+            }
+        }
+
+        private void run() {
+            while (running) {
+                long deadline = startTime + (tick + 1) * tickNanos;
+                long sleepNanos = deadline - System.nanoTime();
+                if (sleepNanos > 0) {
+                    LockSupport.parkNanos(this, sleepNanos);
+                    continue;
+                }
+                transferPending();
+                expire(wheel.get((int) (tick & mask)));
+                tick++;
+            }
+        }
+
+        private void transferPending() {
+            Timeout timeout;
+            while ((timeout = pending.poll()) != null) {
+                long targetTick = Math.max(tick, (timeout.deadline - startTime) / tickNanos);
+                timeout.rounds = (targetTick - tick) / wheel.size();
+                wheel.get((int) (targetTick & mask)).add(timeout);
+            }
+        }
+
+        private void expire(ArrayDeque<Timeout> bucket) {
+            for (Iterator<Timeout> it = bucket.iterator(); it.hasNext(); ) {
+                Timeout timeout = it.next();
+                if (timeout.rounds > 0) {
+                    timeout.rounds--;
+                    continue;
+                }
+                it.remove();
+                try {
+                    timeout.task.run();
+                } catch (RuntimeException e) {
+                    logger.log(Level.WARNING, "Scheduled task failed", e);
+                }
+            }
+        }
+
+        /**
+         * Останавливает поток таймера. Незапущенные задачи отбрасываются.
+         */
+        @Override
+        public void close() {
+            shutdownNow();
+        }
+
+        /**
+         * Останавливает поток таймера, дожидаясь выполняемой задачи, и возвращает незапущенные задачи.
+         * Не должен вызываться из задачи таймера.
+         */
+        public List<Runnable> shutdownNow() {
+            running = false;
+            LockSupport.unpark(worker);
+            boolean interrupted = false;
+            while (worker.isAlive()) {
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            List<Runnable> unstarted = new ArrayList<>();
+            for (ArrayDeque<Timeout> bucket : wheel) {
+                bucket.forEach(timeout -> unstarted.add(timeout.task));
+                bucket.clear();
+            }
+            Timeout timeout;
+            while ((timeout = pending.poll()) != null) {
+                unstarted.add(timeout.task);
+            }
+            return unstarted;
+        }
+
+        private static class Timeout {
+            private final Runnable task;
+            private final long deadline;
+            private long rounds;
+
+            Timeout(Runnable task, long deadline) {
+                this.task = task;
+                this.deadline = deadline;
+            }
+        }
+    }
+
+    /**
+     * Сериализует документы в JSON на вызывающем потоке.
+     * Каждый поток повторно использует собственный {@link ByteArrayBuilder},
+     * поэтому на документ выделяется только итоговый массив байт.
+     */
+    public static class DocumentSerializer {
+        private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+
+        private final ObjectWriter writer;
+        private final ThreadLocal<ByteArrayBuilder> buffers =
+                ThreadLocal.withInitial(() -> new ByteArrayBuilder(INITIAL_BUFFER_SIZE));
+
+        public DocumentSerializer(ObjectMapper objectMapper) {
+            this.writer = objectMapper.writerFor(Document.class);
+        }
+
+        /**
+         * Сериализует документ в JSON.
+         *
+         * @param document документ
+         * @return тело запроса в кодировке UTF-8
+         * @throws IOException если документ не удалось сериализовать
+         */
+        public byte[] serialize(Document document) throws IOException {
+            ByteArrayBuilder buffer = buffers.get();
+            try {
+                writer.writeValue(buffer, document);
+                return buffer.toByteArray();
+            } finally {
+                buffer.reset();
+            }
+        }
+    }
+
+    /**
+     * Сжимает тела запросов в формат gzip, если их размер не меньше порога.
+     * Данные сжимаются потоково прямо в сегменты повторно используемого буфера потока,
+     * {@link Deflater} также переиспользуется, поэтому нативная память не выделяется на каждый документ.
+     * Сжатое тело начинается с сигнатуры gzip, по которой его можно отличить от JSON
+     * после вытеснения на диск или восстановления из журнала.
+     */
+    public static class GzipEncoder {
+        private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+        private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+
+        private final int threshold;
+        private final ThreadLocal<Deflater> deflaters;
+        private final ThreadLocal<ByteArrayBuilder> buffers =
+                ThreadLocal.withInitial(() -> new ByteArrayBuilder(INITIAL_BUFFER_SIZE));
+
+        /**
+         * @param threshold минимальный размер тела в байтах, начиная с которого оно сжимается
+         * @param level     уровень сжатия от {@link Deflater#BEST_SPEED} до {@link Deflater#BEST_COMPRESSION}
+         */
+        public GzipEncoder(int threshold, int level) {
+            this.threshold = threshold;
+            this.deflaters = ThreadLocal.withInitial(() -> new Deflater(level, true));
+        }
+
+        /**
+         * Возвращает сжатое тело или исходное, если оно меньше порога.
+         */
+        public byte[] encode(byte[] body) {
+            if (body.length < threshold) {
+                return body;
+            }
+            Deflater deflater = deflaters.get();
+            ByteArrayBuilder buffer = buffers.get();
+            try {
+                buffer.write(HEADER);
+                deflater.setInput(body);
+                deflater.finish();
+                byte[] segment = buffer.getCurrentSegment();
+                int position = buffer.getCurrentSegmentLength();
+                while (!deflater.finished()) {
+                    if (position == segment.length) {
+                        segment = buffer.finishCurrentSegment();
+                        position = 0;
+                    }
+                    position += deflater.deflate(segment, position, segment.length - position);
+                }
+                buffer.setCurrentSegmentLength(position);
+                CRC32 crc = new CRC32();
+                crc.update(body);
+                writeIntLittleEndian(buffer, (int) crc.getValue());
+                writeIntLittleEndian(buffer, body.length);
+                return buffer.toByteArray();
+            } finally {
+                deflater.reset();
+                buffer.reset();
+            }
+        }
+
+        /**
+         * Проверяет, сжато ли тело в формат gzip.
+         */
+        public static boolean isGzip(byte[] body) {
+            return body.length >= 2 && body[0] == HEADER[0] && body[1] == HEADER[1];
+        }
+
+        private static void writeIntLittleEndian(ByteArrayBuilder buffer, int value) {
+            buffer.append(value);
+            buffer.append(value >>> 8);
+            buffer.append(value >>> 16);
+            buffer.append(value >>> 24);
+        }
+    }
+
+    /**
+     * Публикует тело запроса, сериализуя документ по частям по мере запроса данных HTTP-клиентом.
+     * Документ целиком в памяти не собирается: генератор Jackson пишет в блоки фиксированного размера,
+     * и новый товар сериализуется только после того, как клиент забрал готовые блоки.
+     * Поэтому память на запрос ограничена несколькими блоками независимо от количества товаров.
+     * Формат совпадает с сериализацией по аннотациям {@link Document}. Каждая подписка сериализует документ заново,
+     * поэтому документ не должен меняться до завершения отправки.
+     */
+    public static class StreamingBodyPublisher implements HttpRequest.BodyPublisher {
+        private static final int DEFAULT_CHUNK_SIZE = 16 * 1024;
+
+        private final ObjectMapper objectMapper;
+        private final Document document;
+        private final int chunkSize;
+
+        public StreamingBodyPublisher(ObjectMapper objectMapper, Document document) {
+            this(objectMapper, document, DEFAULT_CHUNK_SIZE);
+        }
+
+        public StreamingBodyPublisher(ObjectMapper objectMapper, Document document, int chunkSize) {
+            this.objectMapper = objectMapper;
+            this.document = document;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        public long contentLength() {
+            return -1;
+        }
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+            subscriber.onSubscribe(new StreamingSubscription(subscriber));
+        }
+
+        /**
+         * Подписка, которая сериализует документ по шагам: начало документа, по одному товару, окончание.
+         * Выполнением шагов и доставкой блоков владеет один поток за раз, его выбирает счетчик {@code wip}.
+         */
+        private class StreamingSubscription extends OutputStream implements Flow.Subscription {
+            private static final int HEAD = -1;
+
+            private final Flow.Subscriber<? super ByteBuffer> subscriber;
+            private final AtomicLong demand = new AtomicLong();
+            private final AtomicInteger wip = new AtomicInteger();
+            private final ArrayDeque<ByteBuffer> ready = new ArrayDeque<>();
+            private final char[] dateBuffer = new char[DocumentJsonWriter.DATE_LENGTH];
+            private volatile boolean cancelled;
+            private JsonGenerator generator;
+            private SerializerProvider provider;
+            private ByteBuffer current;
+            private int nextProduct = HEAD;
+            private boolean serialized;
+            private boolean done;
+
+            StreamingSubscription(Flow.Subscriber<? super ByteBuffer> subscriber) {
+                this.subscriber = subscriber;
+            }
+
+            @Override
+            public void request(long n) {
+                if (n <= 0) {
+                    cancelled = true;
+                    subscriber.onError(new IllegalArgumentException("non-positive request: " + n));
+                    return;
+                }
+                demand.getAndUpdate(d -> d + n < 0 ? Long.MAX_VALUE : d + n);
+                drain();
+            }
+
+            @Override
+            public void cancel() {
+                cancelled = true;
+            }
+
+            private void drain() {
+                if (wip.getAndIncrement() != 0) {
+                    return;
+                }
+                do {
+                    while (!cancelled && !done) {
+                        if (!ready.isEmpty()) {
+                            if (demand.get() == 0) {
+                                break;
+                            }
+                            demand.decrementAndGet();
+                            subscriber.onNext(ready.poll());
+                        } else if (serialized) {
+                            done = true;
+                            subscriber.onComplete();
+                        } else {
+                            try {
+                                writeNextStep();
+                            } catch (IOException | RuntimeException e) {
+                                done = true;
+                                subscriber.onError(e);
+                            }
+                        }
+                    }
+                } while (wip.decrementAndGet() != 0);
+            }
+
+            private void writeNextStep() throws IOException {
+                if (nextProduct == HEAD) {
+                    generator = objectMapper.createGenerator(this);
+                    provider = objectMapper.getSerializerProviderInstance();
+                    DocumentJsonWriter.writeDocumentHead(document, generator);
+                    if (document.products == null) {
+                        generator.writeNull();
+                    } else {
+                        generator.writeStartArray(document.products, document.products.size());
+                    }
+                    nextProduct = 0;
+                } else if (document.products != null && nextProduct < document.products.size()) {
+                    DocumentJsonWriter.writeProduct(document.products.get(nextProduct++), generator, provider, dateBuffer);
+                } else {
+                    if (document.products != null) {
+                        generator.writeEndArray();
+                    }
+                    DocumentJsonWriter.writeDocumentTail(document, generator, provider, dateBuffer);
+                    generator.close();
+                    if (current != null && current.position() > 0) {
+                        ready.add(current.flip());
+                    }
+                    current = null;
+                    serialized = true;
+                }
+            }
+
+            @Override
+            public void write(int b) {
+                if (current == null) {
+                    current = ByteBuffer.allocate(chunkSize);
+                }
+                current.put((byte) b);
+                if (!current.hasRemaining()) {
+                    ready.add(current.flip());
+                    current = null;
+                }
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) {
+                while (length > 0) {
+                    if (current == null) {
+                        current = ByteBuffer.allocate(chunkSize);
+                    }
+                    int count = Math.min(length, current.remaining());
+                    current.put(bytes, offset, count);
+                    offset += count;
+                    length -= count;
+                    if (!current.hasRemaining()) {
+                        ready.add(current.flip());
+                        current = null;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Делит документ со слишком большим списком товаров на части, ограниченные количеством товаров
+     * и размером тела запроса. Сначала товары делятся по количеству, части сериализуются параллельно,
+     * а часть, тело которой оказалось больше лимита, делится пополам, пока не уложится в лимит
+     * или не останется один товар. Сериализованные тела частей используются для отправки как есть.
+     * Все части сохраняют поля и идентификатор исходного документа.
+     */
+    public static class DocumentSplitter {
+        private final int maxProducts;
+        private final int maxBytes;
+
+        /**
+         * @param maxProducts максимальное количество товаров в одной части
+         * @param maxBytes    максимальный размер тела запроса одной части в байтах
+         */
+        public DocumentSplitter(int maxProducts, int maxBytes) {
+            if (maxProducts <= 0 || maxBytes <= 0) {
+                throw new IllegalArgumentException("Split limits must be positive: " + maxProducts + ", " + maxBytes);
+            }
+            this.maxProducts = maxProducts;
+            this.maxBytes = maxBytes;
+        }
+
+        /**
+         * Делит и сериализует документ. Если документ укладывается в лимиты, возвращается одна часть
+         * с исходным документом.
+         *
+         * @param document   документ
+         * @param serializer сериализация части в тело запроса
+         * @return части в порядке следования товаров
+         * @throws IOException если часть не удалось сериализовать
+         */
+        public List<Part> split(Document document, PartSerializer serializer) throws IOException {
+            List<Document.Product> products = document.products;
+            if (products == null || products.size() <= maxProducts) {
+                byte[] body = serializer.serialize(document);
+                if (body.length <= maxBytes || products == null || products.size() <= 1) {
+                    return List.of(new Part(document, body));
+                }
+                // Тело всего документа уже сериализовано и не уложилось в лимит, поэтому документ сразу делится пополам.
+                List<Part> parts = new ArrayList<>();
+                halve(document, 0, products.size(), serializer, parts);
+                return parts;
+            }
+            int chunks = (products.size() + maxProducts - 1) / maxProducts;
+            List<List<Part>> results;
+            try {
+                results = IntStream.range(0, chunks).parallel()
+                        .mapToObj(i -> {
+                            List<Part> parts = new ArrayList<>();
+                            int from = i * maxProducts;
+                            try {
+                                splitRange(document, from, Math.min(products.size(), from + maxProducts), serializer, parts);
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                            return parts;
+                        })
+                        .collect(Collectors.toList());
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            List<Part> parts = new ArrayList<>();
+            for (List<Part> chunk : results) {
+                parts.addAll(chunk);
+            }
+            return parts;
+        }
+
+        private void splitRange(Document document, int from, int to, PartSerializer serializer, List<Part> parts)
+                throws IOException {
+            Document part = withProducts(document, document.products.subList(from, to));
+            byte[] body = serializer.serialize(part);
+            if (body.length > maxBytes && to - from > 1) {
+                halve(document, from, to, serializer, parts);
+                return;
+            }
+            parts.add(new Part(part, body));
+        }
+
+        private void halve(Document document, int from, int to, PartSerializer serializer, List<Part> parts)
+                throws IOException {
+            int middle = (from + to) >>> 1;
+            splitRange(document, from, middle, serializer, parts);
+            splitRange(document, middle, to, serializer, parts);
+        }
+
+        private static Document withProducts(Document document, List<Document.Product> products) {
+            return Document.builder()
+                    .description(document.description)
+                    .docId(document.docId)
+                    .docStatus(document.docStatus)
+                    .docType(document.docType)
+                    .importRequest(document.importRequest)
+                    .ownerInn(document.ownerInn)
+                    .participantInn(document.participantInn)
+                    .producerInn(document.producerInn)
+                    .productionDate(document.productionDate)
+                    .productionType(document.productionType)
+                    .products(products)
+                    .regDate(document.regDate)
+                    .regNumber(document.regNumber)
+                    .build();
+        }
+
+        /**
+         * Сериализация части документа в тело запроса.
+         */
+        public interface PartSerializer {
+            byte[] serialize(Document document) throws IOException;
+        }
+
+        /**
+         * Часть документа и ее тело запроса.
+         */
+        @Getter
+        public static class Part {
+            private final Document document;
+            private final byte[] body;
+
+            Part(Document document, byte[] body) {
+                this.document = document;
+                this.body = body;
+            }
+        }
+    }
+
+    /**
+     * Потоковая запись {@link Document} для {@link StreamingBodyPublisher}. Имена полей заранее закодированы,
+     * а даты записываются без {@link java.time.format.DateTimeFormatter}.
+     * <p>
+     * Формат дат следует {@link SerializationFeature#WRITE_DATES_AS_TIMESTAMPS}, как и у {@link JavaTimeModule}.
+     * Поля идут в том же порядке, что и при сериализации по аннотациям: сначала поля без {@link JsonProperty},
+     * затем переименованные, поэтому тело запроса совпадает побайтно. Имена полей повторяют аннотации
+     * {@link Document}; совпадение проверяет StreamingBodyPublisherTest.
+     */
+    private static final class DocumentJsonWriter {
+        private static final SerializedString DESCRIPTION = new SerializedString("description");
+        private static final SerializedString PARTICIPANT_INN = new SerializedString("participantInn");
+        private static final SerializedString DOC_ID = new SerializedString("doc_id");
+        private static final SerializedString DOC_STATUS = new SerializedString("doc_status");
+        private static final SerializedString DOC_TYPE = new SerializedString("doc_type");
+        private static final SerializedString IMPORT_REQUEST = new SerializedString("importRequest");
+        private static final SerializedString DOCUMENT_OWNER_INN = new SerializedString("ownerInn");
+        private static final SerializedString DOCUMENT_PARTICIPANT_INN = new SerializedString("participant_inn");
+        private static final SerializedString DOCUMENT_PRODUCER_INN = new SerializedString("producerInn");
+        private static final SerializedString DOCUMENT_PRODUCTION_DATE = new SerializedString("productioDate");
+        private static final SerializedString PRODUCTION_TYPE = new SerializedString("production_type");
+        private static final SerializedString PRODUCTS = new SerializedString("products");
+        private static final SerializedString REG_DATE = new SerializedString("reg_date");
+        private static final SerializedString REG_NUMBER = new SerializedString("reg_number");
+        private static final SerializedString CERTIFICATE_DOCUMENT = new SerializedString("certificate_document");
+        private static final SerializedString CERTIFICATE_DOCUMENT_DATE = new SerializedString("certificate_document_date");
+        private static final SerializedString CERTIFICATE_DOCUMENT_NUMBER = new SerializedString("certificate_document_number");
+        private static final SerializedString OWNER_INN = new SerializedString("owner_inn");
+        private static final SerializedString PRODUCER_INN = new SerializedString("producer_inn");
+        private static final SerializedString PRODUCTION_DATE = new SerializedString("production_date");
+        private static final SerializedString TNVED_CODE = new SerializedString("tnved_code");
+        private static final SerializedString UIT_CODE = new SerializedString("uit_code");
+        private static final SerializedString UITU_CODE = new SerializedString("uitu_code");
+        static final int DATE_LENGTH = 10;
+
+        private DocumentJsonWriter() {
+        }
+
+        /**
+         * Записывает начало документа до имени поля {@code products} включительно.
+         */
+        static void writeDocumentHead(Document document, JsonGenerator gen) throws IOException {
+            gen.writeStartObject(document);
+            gen.writeFieldName(DESCRIPTION);
+            writeDescription(document.description, gen);
+            gen.writeFieldName(IMPORT_REQUEST);
+            gen.writeBoolean(document.importRequest);
+            gen.writeFieldName(PRODUCTS);
+        }
+
+        /**
+         * Записывает поля документа, следующие за {@code products}, и закрывает объект.
+         */
+        static void writeDocumentTail(Document document, JsonGenerator gen, SerializerProvider provider,
+                                              char[] dateBuffer) throws IOException {
+            gen.writeFieldName(DOC_ID);
+            gen.writeString(document.docId);
+            gen.writeFieldName(DOC_STATUS);
+            gen.writeString(document.docStatus);
+            gen.writeFieldName(DOC_TYPE);
+            gen.writeString(document.docType);
+            gen.writeFieldName(DOCUMENT_OWNER_INN);
+            gen.writeString(document.ownerInn);
+            gen.writeFieldName(DOCUMENT_PARTICIPANT_INN);
+            gen.writeString(document.participantInn);
+            gen.writeFieldName(DOCUMENT_PRODUCER_INN);
+            gen.writeString(document.producerInn);
+            gen.writeFieldName(DOCUMENT_PRODUCTION_DATE);
+            writeDate(document.productionDate, gen, provider, dateBuffer);
+            gen.writeFieldName(PRODUCTION_TYPE);
+            gen.writeString(document.productionType);
+            gen.writeFieldName(REG_DATE);
+            writeDate(document.regDate, gen, provider, dateBuffer);
+            gen.writeFieldName(REG_NUMBER);
+            gen.writeString(document.regNumber);
+            gen.writeEndObject();
+        }
+
+        private static void writeDescription(Document.Description description, JsonGenerator gen) throws IOException {
+            if (description == null) {
+                gen.writeNull();
+                return;
+            }
+            gen.writeStartObject(description);
+            gen.writeFieldName(PARTICIPANT_INN);
+            gen.writeString(description.participantInn);
+            gen.writeEndObject();
+        }
+
+        static void writeProduct(Document.Product product, JsonGenerator gen, SerializerProvider provider,
+                                         char[] dateBuffer) throws IOException {
+            if (product == null) {
+                gen.writeNull();
+                return;
+            }
+            gen.writeStartObject(product);
+            gen.writeFieldName(CERTIFICATE_DOCUMENT);
+            gen.writeString(product.certificateDocument);
+            gen.writeFieldName(CERTIFICATE_DOCUMENT_DATE);
+            writeDate(product.certificateDocumentDate, gen, provider, dateBuffer);
+            gen.writeFieldName(CERTIFICATE_DOCUMENT_NUMBER);
+            gen.writeString(product.certificateDocumentNumber);
+            gen.writeFieldName(OWNER_INN);
+            gen.writeString(product.ownerInn);
+            gen.writeFieldName(PRODUCER_INN);
+            gen.writeString(product.producerInn);
+            gen.writeFieldName(PRODUCTION_DATE);
+            writeDate(product.productioDate, gen, provider, dateBuffer);
+            gen.writeFieldName(TNVED_CODE);
+            gen.writeString(product.tnvedCode);
+            gen.writeFieldName(UIT_CODE);
+            gen.writeString(product.uitCode);
+            gen.writeFieldName(UITU_CODE);
+            gen.writeString(product.uituCode);
+            gen.writeEndObject();
+        }
+
+        /**
+         * Записывает дату в виде {@code [год, месяц, день]} или строки {@code yyyy-MM-dd}
+         * в зависимости от {@link SerializationFeature#WRITE_DATES_AS_TIMESTAMPS}.
+         */
+        private static void writeDate(LocalDate date, JsonGenerator gen, SerializerProvider provider,
+                                      char[] buffer) throws IOException {
+            if (date == null) {
+                gen.writeNull();
+                return;
+            }
+            if (provider.isEnabled(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)) {
+                gen.writeStartArray();
+                gen.writeNumber(date.getYear());
+                gen.writeNumber(date.getMonthValue());
+                gen.writeNumber(date.getDayOfMonth());
+                gen.writeEndArray();
+                return;
+            }
+            int year = date.getYear();
+            if (year < 0 || year > 9999) {
+                // ISO-8601 требует знак для таких лет; это редкий случай, обходимся стандартным форматом.
+                gen.writeString(date.toString());
+                return;
+            }
+            writeDigits(buffer, 0, year, 4);
+            buffer[4] = '-';
+            writeDigits(buffer, 5, date.getMonthValue(), 2);
+            buffer[7] = '-';
+            writeDigits(buffer, 8, date.getDayOfMonth(), 2);
+            gen.writeString(buffer, 0, DATE_LENGTH);
+        }
+
+        private static void writeDigits(char[] buffer, int offset, int value, int width) {
+            for (int i = offset + width - 1; i >= offset; i--) {
+                buffer[i] = (char) ('0' + value % 10);
+                value /= 10;
+            }
+        }
+    }
+
+    /**
+     * Метрики отправки документов. Запись значений не использует блокировок и не выделяет память,
+     * поэтому снимок можно получать в любой момент, не останавливая отправку.
+     */
+    public static class Metrics {
+        private static final int MAX_STATUS_CODE = 600;
+
+        private final LatencyHistogram queueWait = new LatencyHistogram();
+        private final LatencyHistogram limiterWait = new LatencyHistogram();
+        private final LatencyHistogram serialization = new LatencyHistogram();
+        private final LatencyHistogram httpRoundTrip = new LatencyHistogram();
+        private final LongAdder succeeded = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder limitViolations = new LongAdder();
+        private final AtomicLongArray statusCodes = new AtomicLongArray(MAX_STATUS_CODE);
+        private final IntSupplier queueDepth;
+
+        public Metrics(IntSupplier queueDepth) {
+            this.queueDepth = queueDepth;
+        }
+
+        void recordQueueWait(long nanos) {
+            queueWait.record(nanos);
+        }
+
+        void recordLimiterWait(long nanos) {
+            limiterWait.record(nanos);
+        }
+
+        void recordSerialization(long nanos) {
+            serialization.record(nanos);
+        }
+
+        void recordResponse(int statusCode, long roundTripNanos) {
+            httpRoundTrip.record(roundTripNanos);
+            if (statusCode == 200) {
+                succeeded.increment();
+            } else {
+                failed.increment();
+            }
+            if (statusCode >= 0 && statusCode < MAX_STATUS_CODE) {
+                statusCodes.incrementAndGet(statusCode);
+            }
+        }
+
+        void recordError() {
+            errors.increment();
+        }
+
+        void recordLimitViolation() {
+            limitViolations.increment();
+        }
+
+        /**
+         * Возвращает текущие значения метрик.
+         */
+        public MetricsSnapshot snapshot() {
+            Map<Integer, Long> codes = new LinkedHashMap<>();
+            for (int code = 0; code < MAX_STATUS_CODE; code++) {
+                long count = statusCodes.get(code);
+                if (count > 0) {
+                    codes.put(code, count);
+                }
+            }
+            return MetricsSnapshot.builder()
+                    .queueWait(queueWait.snapshot())
+                    .limiterWait(limiterWait.snapshot())
+                    .serialization(serialization.snapshot())
+                    .httpRoundTrip(httpRoundTrip.snapshot())
+                    .succeeded(succeeded.sum())
+                    .failed(failed.sum())
+                    .errors(errors.sum())
+                    .limitViolations(limitViolations.sum())
+                    .statusCodes(codes)
+                    .queueDepth(queueDepth.getAsInt())
+                    .build();
+        }
+    }
+
+    /**
+     * Снимок метрик отправки документов.
+     */
+    @Builder
+    @Getter
+    public static class MetricsSnapshot {
+        /**
+         * Время от постановки задачи в очередь до начала ее выполнения.
+         */
+        private final HistogramSnapshot queueWait;
+        /**
+         * Время ожидания разрешения у ограничителя.
+         */
+        private final HistogramSnapshot limiterWait;
+        /**
+         * Время сериализации документа.
+         */
+        private final HistogramSnapshot serialization;
+        /**
+         * Время от отправки запроса до получения ответа.
+         */
+        private final HistogramSnapshot httpRoundTrip;
+        /**
+         * Количество ответов со статусом 200.
+         */
+        private final long succeeded;
+        /**
+         * Количество ответов с другими статусами.
+         */
+        private final long failed;
+        /**
+         * Количество запросов, на которые не был получен ответ.
+         */
+        private final long errors;
+        /**
+         * Количество нарушений лимита, найденных {@link CheckedRateLimiter}.
+         */
+        private final long limitViolations;
+        private final Map<Integer, Long> statusCodes;
+        private final int queueDepth;
+    }
+
+    /**
+     * Гистограмма длительностей в наносекундах с логарифмически-линейными интервалами в духе HdrHistogram:
+     * каждая степень двойки делится на {@value #SUB_BUCKETS} интервалов, что дает относительную
+     * погрешность около 3%. Запись - одна атомарная операция над {@link AtomicLongArray} без выделения памяти.
+     */
+    public static class LatencyHistogram {
+        private static final int SUB_BUCKET_BITS = 5;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+        private static final int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        public void record(long nanos) {
+            long value = Math.max(0, nanos);
+            counts.incrementAndGet(bucketIndex(value));
+            sum.add(value);
+            long currentMax;
+            while (value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value)) {
+                // Повторяем, пока другой поток не записал большее значение.
+            }
+        }
+
+        public HistogramSnapshot snapshot() {
+            long[] copy = new long[BUCKET_COUNT];
+            long count = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                copy[i] = counts.get(i);
+                count += copy[i];
+            }
+            return new HistogramSnapshot(copy, count, sum.sum(), max.get());
+        }
+
+        static int bucketIndex(long value) {
+            if (value < LINEAR_LIMIT) {
+                return (int) value;
+            }
+            int shift = Long.SIZE - Long.numberOfLeadingZeros(value) - 1 - SUB_BUCKET_BITS;
+            return shift * SUB_BUCKETS + (int) (value >>> shift);
+        }
+
+        static long bucketUpperBound(int index) {
+            if (index < LINEAR_LIMIT) {
+                return index;
+            }
+            int shift = index / SUB_BUCKETS - 1;
+            long mantissa = index % SUB_BUCKETS + SUB_BUCKETS;
+            return ((mantissa + 1) << shift) - 1;
+        }
+    }
+
+    /**
+     * Снимок гистограммы длительностей.
+     */
+    public static class HistogramSnapshot {
+        private final long[] counts;
+        @Getter
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        HistogramSnapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public Duration getMean() {
+            return Duration.ofNanos(count == 0 ? 0 : sum / count);
+        }
+
+        public Duration getMax() {
+            return Duration.ofNanos(max);
+        }
+
+        /**
+         * Возвращает верхнюю границу интервала, в который попадает заданный перцентиль.
+         *
+         * @param percentile перцентиль от 0 до 100
+         */
+        public Duration getPercentile(double percentile) {
+            if (count == 0) {
+                return Duration.ZERO;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Duration.ofNanos(Math.min(LatencyHistogram.bucketUpperBound(i), max));
+                }
+            }
+            return Duration.ofNanos(max);
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count + ", mean=" + getMean() + ", p50=" + getPercentile(50)
+                    + ", p99=" + getPercentile(99) + ", max=" + getMax();
+        }
+    }
+
+    /**
+     * Событие JFR: ожидание разрешения у ограничителя частоты запросов.
+     */
+    @Name("ru.panov.crpt.PermitWait")
+    @Label("Permit Wait")
+    @Category("CRPT API")
+    @Description("Waiting for a rate limiter permit before sending a document")
+    @StackTrace(false)
+    static class PermitWaitEvent extends Event {
+        @Label("Document Id")
+        String docId;
+    }
+
+    /**
+     * Событие JFR: сериализация документа в JSON.
+     */
+    @Name("ru.panov.crpt.DocumentSerialize")
+    @Label("Document Serialize")
+    @Category("CRPT API")
+    @StackTrace(false)
+    static class DocumentSerializeEvent extends Event {
+        @Label("Document Id")
+        String docId;
+        @Label("Product Count")
+        int productCount;
+        @Label("Size")
+        @DataAmount
+        int bytes;
+    }
+
+    /**
+     * Событие JFR: HTTP-запрос создания документа от отправки до получения ответа.
+     */
+    @Name("ru.panov.crpt.DocumentSend")
+    @Label("Document Send")
+    @Category("CRPT API")
+    @StackTrace(false)
+    static class DocumentSendEvent extends Event {
+        static final int NO_RESPONSE = -1;
+        static final int STREAMED = -1;
+
+        @Label("Document Id")
+        String docId;
+        @Label("Size")
+        @Description("Request body size, -1 if the body was streamed")
+        @DataAmount
+        int bytes;
+        @Label("Status")
+        @Description("HTTP status code, -1 if no response was received")
+        int status;
+    }
+
+    public interface DocumentClient {
+        /**
+         * Создает документ на Crpt API.
+         *
+         * @param document  информация о документе
+         * @param signature подпись для аутентификации запроса
+         */
+        void createDocument(Document document, String signature);
+
+        /**
+         * Асинхронно создает документ на Crpt API.
+         * Future завершается ответом сервера с любым HTTP-статусом и завершается исключением,
+         * если запрос не удалось подготовить или отправить, в том числе после закрытия очереди клиента.
+         *
+         * @param document  информация о документе
+         * @param signature подпись для аутентификации запроса
+         * @return результат создания документа
+         */
+        CompletableFuture<CreateDocumentResult> createDocumentAsync(Document document, String signature);
+
+        /**
+         * Создает пакет документов на Crpt API.
+         * Документы сериализуются параллельно и отправляются через ограничитель в исходном порядке.
+         * Ошибка отдельного документа не прерывает пакет и отражается в его результате.
+         * Если очередь клиента закрыта, future сразу завершается исключением.
+         *
+         * @param documents документы для создания
+         * @param signature подпись для аутентификации запросов
+         * @return результаты создания в порядке следования документов
+         */
+        CompletableFuture<List<CreateDocumentResult>> createDocuments(List<Document> documents, String signature);
+    }
+
+    /**
+     * Результат вызова создания документа.
+     */
+    @Builder
+    @Getter
+    public static class CreateDocumentResult {
+        private final int statusCode;
+        /**
+         * Идентификатор созданного документа, если сервер его вернул.
+         */
+        private final String documentId;
+        /**
+         * Тело ответа при неуспешном статусе.
+         */
+        private final String errorBody;
+        /**
+         * Значение заголовка Retry-After, если сервер его вернул.
+         */
+        private final Duration retryAfter;
+        /**
+         * Время от постановки запроса в очередь до получения ответа.
+         */
+        private final Duration latency;
+        /**
+         * Ошибка, из-за которой ответ не был получен (только для пакетной отправки).
+         */
+        private final Throwable error;
+        /**
+         * Результаты отправки частей, если документ был разделен {@link DocumentSplitter}.
+         */
+        private final List<CreateDocumentResult> parts;
+
+        public boolean isSuccess() {
+            return statusCode == 200;
+        }
+
+        /**
+         * Объединяет результаты частей разделенного документа: результат успешен, только если успешны все части,
+         * иначе статус и ошибка берутся из первой неуспешной части.
+         */
+        static CreateDocumentResult aggregate(List<CreateDocumentResult> parts, long submittedAt) {
+            CreateDocumentResult failure = parts.stream()
+                    .filter(part -> !part.isSuccess())
+                    .findFirst()
+                    .orElse(null);
+            return CreateDocumentResult.builder()
+                    .statusCode(failure == null ? 200 : failure.statusCode)
+                    .errorBody(failure == null ? null : failure.errorBody)
+                    .error(failure == null ? null : failure.error)
+                    .latency(Duration.ofNanos(System.nanoTime() - submittedAt))
+                    .parts(parts)
+                    .build();
+        }
+
+        static CreateDocumentResult failed(Throwable error, long submittedAt) {
+            return CreateDocumentResult.builder()
+                    .error(error)
+                    .errorBody(String.valueOf(error))
+                    .latency(Duration.ofNanos(System.nanoTime() - submittedAt))
+                    .build();
+        }
+    }
+
+    @Builder
+    public static class RestDocumentClientImpl implements DocumentClient {
+        private static final long NOT_JOURNALED = -1;
+
+        @Builder.Default
+        private final URI apiUri = URI.create(API_URL);
+        /**
+         * Таймаут ожидания ответа, может отсутствовать.
+         */
+        private final Duration requestTimeout;
+        private final HttpClient httpClient;
+        private final ObjectMapper objectMapper;
+        private final DocumentSerializer documentSerializer;
+        /**
+         * Сжатие тел запросов, может отсутствовать.
+         */
+        private final GzipEncoder gzipEncoder;
+        private final RateLimiter rateLimiter;
+        /**
+         * Количество товаров, начиная с которого документ не сериализуется заранее,
+         * а передается потоково через {@link StreamingBodyPublisher}.
+         */
+        @Builder.Default
+        private final int streamingThreshold = Integer.MAX_VALUE;
+        /**
+         * Разделение больших документов на части, может отсутствовать.
+         */
+        private final DocumentSplitter documentSplitter;
+        @Builder.Default
+        private final InFlightLimiter inFlightLimiter = new InFlightLimiter(Integer.MAX_VALUE);
+        private final RequestQueue requestQueue;
+        /**
+         * Журнал неотправленных документов, может отсутствовать.
+         */
+        private final DocumentJournal journal;
+        @Builder.Default
+        private final Metrics metrics = new Metrics(() -> 0);
+        /**
+         * Планировщик повторных попыток, может отсутствовать.
+         */
+        private final RetryScheduler retryScheduler;
+
+        @Override
+        public void createDocument(Document document, String signature) {
+            logOutcome(createDocumentAsync(document, signature));
+        }
+
+        @Override
+        public CompletableFuture<CreateDocumentResult> createDocumentAsync(Document document, String signature) {
+            if (requestQueue.isClosed()) {
+                return CompletableFuture.failedFuture(new IllegalStateException("Request queue is closed"));
+            }
+            try {
+                if (documentSplitter != null) {
+                    return submitParts(document, signature);
+                }
+                Submission submission = prepare(document, signature);
+                enqueue(new DocumentTask(submission));
+                return submission.result;
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+
+        @Override
+        public CompletableFuture<List<CreateDocumentResult>> createDocuments(List<Document> documents, String signature) {
+            if (requestQueue.isClosed()) {
+                return CompletableFuture.failedFuture(new IllegalStateException("Request queue is closed"));
+            }
+            long startedAt = System.nanoTime();
+            if (documentSplitter != null) {
+                List<CompletableFuture<CreateDocumentResult>> results = documents.stream()
+                        .map(document -> createDocumentAsync(document, signature)
+                                .exceptionally(e -> CreateDocumentResult.failed(e, startedAt)))
+                        .collect(Collectors.toList());
+                return joinAll(results);
+            }
+            int size = documents.size();
+            Submission[] submissions = new Submission[size];
+            List<CompletableFuture<CreateDocumentResult>> results = IntStream.range(0, size).parallel()
+                    .mapToObj(i -> {
+                        try {
+                            Submission submission = prepare(documents.get(i), signature);
+                            submissions[i] = submission;
+                            return submission.result.handle((res, ex) ->
+                                    ex != null ? CreateDocumentResult.failed(ex, submission.submittedAt) : res);
+                        } catch (IOException | RuntimeException e) {
+                            return CompletableFuture.completedFuture(CreateDocumentResult.failed(e, startedAt));
+                        }
+                    })
+                    .collect(Collectors.toList());
+            List<Submission> prepared = new ArrayList<>(size);
+            for (Submission submission : submissions) {
+                if (submission != null) {
+                    prepared.add(submission);
+                }
+            }
+            enqueueAll(prepared);
+            return joinAll(results);
+        }
+
+        /**
+         * Ожидает все результаты и возвращает их в исходном порядке.
+         */
+        private static CompletableFuture<List<CreateDocumentResult>> joinAll(
+                List<CompletableFuture<CreateDocumentResult>> results) {
+            return CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0]))
+                    .thenApply(ignored -> results.stream().map(CompletableFuture::join).collect(Collectors.toList()));
+        }
+
+        /**
+         * Повторно отправляет документ из журнала, оставшийся неподтвержденным после перезапуска.
+         *
+         * @param record запись журнала
+         */
+        public void resubmit(DocumentJournal.JournalRecord record) {
+            Submission submission = new Submission(record.getBody(), null, record.getSignature(), null, null, record.getId());
+            enqueue(new DocumentTask(submission));
+            logOutcome(submission.result);
+        }
+
+        private void logOutcome(CompletableFuture<CreateDocumentResult> future) {
+            future.thenAccept(result -> {
+                if (result.isSuccess()) {
+                    logger.info("Document created successfully: " + result.getDocumentId());
+                } else {
+                    logger.warning("Failed to create document: " + result.getErrorBody());
+                }
+            }).exceptionally(e -> {
+                logger.log(Level.SEVERE, "Error creating document", e);
+                return null;
+            });
+        }
+
+        /**
+         * Готовит отправку документа: большие документы передаются потоково и не журналируются,
+         * остальные сериализуются сразу на вызывающем потоке.
+         */
+        private Submission prepare(Document document, String signature) throws IOException {
+            if (document.products != null && document.products.size() >= streamingThreshold) {
+                return new Submission(null, document, signature, document.docId, document.participantInn, NOT_JOURNALED);
+            }
+            byte[] body = serialize(document);
+            return new Submission(body, null, signature, document.docId, document.participantInn,
+                    appendToJournal(body, signature));
+        }
+
+        /**
+         * Делит документ и отправляет части одной пакетной задачей. Результат объединяет результаты частей.
+         */
+        private CompletableFuture<CreateDocumentResult> submitParts(Document document, String signature)
+                throws IOException {
+            long startedAt = System.nanoTime();
+            List<DocumentSplitter.Part> parts = documentSplitter.split(document, this::serialize);
+            List<Submission> submissions = new ArrayList<>(parts.size());
+            for (DocumentSplitter.Part part : parts) {
+                submissions.add(new Submission(part.getBody(), null, signature, document.docId,
+                        document.participantInn, appendToJournal(part.getBody(), signature)));
+            }
+            if (submissions.size() == 1) {
+                enqueue(new DocumentTask(submissions.get(0)));
+                return submissions.get(0).result;
+            }
+            enqueueAll(submissions);
+            List<CompletableFuture<CreateDocumentResult>> results = submissions.stream()
+                    .map(submission -> submission.result.handle((res, ex) ->
+                            ex != null ? CreateDocumentResult.failed(ex, submission.submittedAt) : res))
+                    .collect(Collectors.toList());
+            return joinAll(results).thenApply(partResults -> CreateDocumentResult.aggregate(partResults, startedAt));
+        }
+
+        private byte[] serialize(Document document) throws IOException {
+            DocumentSerializeEvent event = new DocumentSerializeEvent();
+            event.begin();
+            long startedAt = System.nanoTime();
+            byte[] body = documentSerializer.serialize(document);
+            if (gzipEncoder != null) {
+                body = gzipEncoder.encode(body);
+            }
+            metrics.recordSerialization(System.nanoTime() - startedAt);
+            event.end();
+            if (event.shouldCommit()) {
+                event.docId = document.docId;
+                event.productCount = document.products == null ? 0 : document.products.size();
+                event.bytes = body.length;
+                event.commit();
+            }
+            return body;
+        }
+
+        private long appendToJournal(byte[] body, String signature) throws IOException {
+            return journal == null ? NOT_JOURNALED : journal.append(body, signature);
+        }
+
+        private void acknowledge(long journalId) {
+            if (journalId != NOT_JOURNALED) {
+                journal.acknowledge(journalId);
+            }
+        }
+
+        private void enqueue(RequestTask task) {
+            try {
+                requestQueue.put(task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                task.reject(e);
+            }
+        }
+
+        /**
+         * Ставит документы в очередь одной пакетной задачей или, при справедливой очереди, по одному.
+         */
+        private void enqueueAll(List<Submission> submissions) {
+            if (requestQueue.isFair()) {
+                submissions.forEach(submission -> enqueue(new DocumentTask(submission)));
+            } else {
+                enqueue(new BatchTask(submissions));
+            }
+        }
+
+        private HttpRequest buildRequest(Submission submission) {
+            byte[] body = submission.body;
+            HttpRequest.Builder builder = HttpRequest.newBuilder()
+                    .uri(apiUri)
+                    .header("Content-Type", "application/json")
+                    .header("Signature", submission.signature)
+                    .POST(body == null
+                            ? new StreamingBodyPublisher(objectMapper, submission.document)
+                            : HttpRequest.BodyPublishers.ofByteArray(body));
+            if (body != null && GzipEncoder.isGzip(body)) {
+                builder.header("Content-Encoding", "gzip");
+            }
+            if (requestTimeout != null) {
+                builder.timeout(requestTimeout);
+            }
+            return builder.build();
+        }
+
+        /**
+         * Получает разрешения у ограничителей одновременных запросов и частоты и отправляет очередную попытку.
+         * Разрешение на одновременный запрос освобождается по завершении попытки.
+         */
+        private void dispatch(Submission submission) throws InterruptedException {
+            HttpRequest request = buildRequest(submission);
+            PermitWaitEvent event = new PermitWaitEvent();
+            event.begin();
+            long waitStartedAt = System.nanoTime();
+            InFlightLimiter.Permit permit = inFlightLimiter.acquire();
+            try {
+                rateLimiter.acquire(submission.tenant);
+            } catch (InterruptedException | RuntimeException e) {
+                permit.release();
+                throw e;
+            }
+            metrics.recordLimiterWait(System.nanoTime() - waitStartedAt);
+            event.end();
+            if (event.shouldCommit()) {
+                event.docId = submission.docId;
+                event.commit();
+            }
+            if (retryScheduler != null && submission.attempt == 0) {
+                retryScheduler.recordRequest();
+            }
+            CompletableFuture<CreateDocumentResult> attempt;
+            try {
+                int bodySize = submission.body == null ? DocumentSendEvent.STREAMED : submission.body.length;
+                attempt = send(request, submission.docId, bodySize, submission.submittedAt);
+            } catch (RuntimeException e) {
+                permit.release();
+                throw e;
+            }
+            attempt.whenComplete((res, ex) -> {
+                permit.release();
+                onAttemptComplete(submission, res, ex);
+            });
+        }
+
+        /**
+         * Завершает отправку или, если ответ допускает повтор, планирует новую попытку.
+         * Повтор снова проходит через очередь и ограничитель.
+         */
+        private void onAttemptComplete(Submission submission, CreateDocumentResult result, Throwable error) {
+            if (retryScheduler != null) {
+                long delay = retryScheduler.nextDelayNanos(submission.attempt, submission.previousDelayNanos, result, error);
+                if (delay >= 0) {
+                    submission.attempt++;
+                    submission.previousDelayNanos = delay;
+                    retryScheduler.requeue(requestQueue, () -> new DocumentTask(submission), delay);
+                    return;
+                }
+            }
+            if (error != null) {
+                submission.result.completeExceptionally(error);
+            } else {
+                submission.result.complete(result);
+            }
+        }
+
+        private CompletableFuture<CreateDocumentResult> send(HttpRequest request, String docId, int bodySize,
+                                                             long submittedAt) {
+            DocumentSendEvent event = new DocumentSendEvent();
+            event.begin();
+            long sentAt = System.nanoTime();
+            return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                    .whenComplete((response, ex) -> {
+                        if (ex != null) {
+                            metrics.recordError();
+                        } else {
+                            metrics.recordResponse(response.statusCode(), System.nanoTime() - sentAt);
+                            rateLimiter.onResponse(response.statusCode(), retryAfter(response));
+                        }
+                        event.end();
+                        if (event.shouldCommit()) {
+                            event.docId = docId;
+                            event.bytes = bodySize;
+                            event.status = ex != null ? DocumentSendEvent.NO_RESPONSE : response.statusCode();
+                            event.commit();
+                        }
+                    })
+                    .thenApply(response -> toResult(response, submittedAt));
+        }
+
+        /**
+         * Разбирает заголовок Retry-After, заданный в секундах или как HTTP-дата.
+         */
+        private static Optional<Duration> retryAfter(HttpResponse<?> response) {
+            return response.headers().firstValue("Retry-After").flatMap(value -> {
+                try {
+                    return Optional.of(Duration.ofSeconds(Long.parseLong(value.trim())));
+                } catch (NumberFormatException e) {
+                    try {
+                        ZonedDateTime at = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                        Duration delay = Duration.between(ZonedDateTime.now(at.getZone()), at);
+                        return Optional.of(delay.isNegative() ? Duration.ZERO : delay);
+                    } catch (DateTimeParseException ignored) {
+                        return Optional.empty();
+                    }
+                }
+            });
+        }
+
+        private CreateDocumentResult toResult(HttpResponse<String> response, long submittedAt) {
+            boolean success = response.statusCode() == 200;
+            return CreateDocumentResult.builder()
+                    .statusCode(response.statusCode())
+                    .documentId(success ? readDocumentId(response.body()) : null)
+                    .errorBody(success ? null : response.body())
+                    .retryAfter(retryAfter(response).orElse(null))
+                    .latency(Duration.ofNanos(System.nanoTime() - submittedAt))
+                    .build();
+        }
+
+        /**
+         * Извлекает идентификатор документа из ответа вида {@code {"value": "..."}}.
+         */
+        private String readDocumentId(String body) {
+            try {
+                return objectMapper.readTree(body).path("value").asText(null);
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Unable to read document id from response", e);
+                return null;
+            }
+        }
+
+        /**
+         * Отправка одного сериализованного документа: тело, состояние повторов и итоговый результат.
+         * Запись журнала, если он ведется, подтверждается при любом итоговом результате: об ошибке
+         * вызывающий узнает из результата, и после перезапуска документ, уже признанный неотправленным,
+         * не должен уходить повторно.
+         */
+        private class Submission {
+            private final CompletableFuture<CreateDocumentResult> result = new CompletableFuture<>();
+            private final long submittedAt = System.nanoTime();
+            private final String signature;
+            private final String docId;
+            /**
+             * ИНН участника для справедливой очереди.
+             */
+            private final String tenant;
+            /**
+             * Документ, передаваемый потоково; для остальных отправок {@code null}.
+             */
+            private final Document document;
+            /**
+             * Тело запроса; {@code null} для потоковой отправки и пока тело вытеснено на диск.
+             */
+            private byte[] body;
+            private int attempt;
+            private long previousDelayNanos;
+
+            Submission(byte[] body, Document document, String signature, String docId, String tenant,
+                       long journalId) {
+                this.body = body;
+                this.document = document;
+                this.signature = signature;
+                this.docId = docId;
+                this.tenant = tenant;
+                result.whenComplete((res, ex) -> acknowledge(journalId));
+            }
+        }
+
+        /**
+         * Задача отправки одного документа.
+         */
+        private class DocumentTask implements RequestTask {
+            private final Submission submission;
+            private final long enqueuedAt = System.nanoTime();
+
+            DocumentTask(Submission submission) {
+                this.submission = submission;
+            }
+
+            @Override
+            public void run() {
+                metrics.recordQueueWait(System.nanoTime() - enqueuedAt);
+                try {
+                    dispatch(submission);
+                } catch (RuntimeException e) {
+                    submission.result.completeExceptionally(e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    submission.result.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void reject(Exception cause) {
+                submission.result.completeExceptionally(cause);
+            }
+
+            @Override
+            public String tenant() {
+                return submission.tenant;
+            }
+
+            @Override
+            public RequestTask spill(Path directory) throws IOException {
+                if (submission.body == null) {
+                    return null;
+                }
+                Files.createDirectories(directory);
+                Path file = Files.createTempFile(directory, "document-", ".json");
+                Files.write(file, submission.body);
+                submission.body = null;
+                return new SpilledDocumentTask(file, submission, enqueuedAt);
+            }
+        }
+
+        /**
+         * Задача отправки документа, тело которого сохранено на диске.
+         */
+        private class SpilledDocumentTask implements RequestTask {
+            private final Path file;
+            private final Submission submission;
+            private final long enqueuedAt;
+
+            SpilledDocumentTask(Path file, Submission submission, long enqueuedAt) {
+                this.file = file;
+                this.submission = submission;
+                this.enqueuedAt = enqueuedAt;
+            }
+
+            @Override
+            public void run() {
+                metrics.recordQueueWait(System.nanoTime() - enqueuedAt);
+                try {
+                    submission.body = Files.readAllBytes(file);
+                    Files.delete(file);
+                    dispatch(submission);
+                } catch (IOException | RuntimeException e) {
+                    submission.result.completeExceptionally(e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    submission.result.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void reject(Exception cause) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    cause.addSuppressed(e);
+                }
+                submission.result.completeExceptionally(cause);
+            }
+
+            @Override
+            public String tenant() {
+                return submission.tenant;
+            }
+        }
+
+        /**
+         * Задача отправки пакета сериализованных документов. Занимает в очереди одно место.
+         */
+        private class BatchTask implements RequestTask {
+            private final List<Submission> submissions;
+            private final long enqueuedAt = System.nanoTime();
+
+            BatchTask(List<Submission> submissions) {
+                this.submissions = submissions;
+            }
+
+            @Override
+            public void run() {
+                metrics.recordQueueWait(System.nanoTime() - enqueuedAt);
+                for (int i = 0; i < submissions.size(); i++) {
+                    try {
+                        dispatch(submissions.get(i));
+                    } catch (RuntimeException e) {
+                        submissions.get(i).result.completeExceptionally(e);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        submissions.subList(i, submissions.size()).forEach(s -> s.result.completeExceptionally(e));
+                        return;
+                    }
+                }
+            }
+
+            @Override
+            public void reject(Exception cause) {
+                submissions.forEach(submission -> submission.result.completeExceptionally(cause));
+            }
+        }
+    }
+
+    @Builder
+    public static class DocumentController {
+        private final DocumentClient documentClient;
+
+        public void createDocument(Document document, String signature) {
+            documentClient.createDocument(document, signature);
+        }
+
+        public CompletableFuture<CreateDocumentResult> createDocumentAsync(Document document, String signature) {
+            return documentClient.createDocumentAsync(document, signature);
+        }
+
+        public CompletableFuture<List<CreateDocumentResult>> createDocuments(List<Document> documents, String signature) {
+            return documentClient.createDocuments(documents, signature);
+        }
+    }
+
+
+    /**
+     * Внутренний класс для представления документа.
+     */
+    @Builder
+    public static class Document {
+        public Description description;
+        @JsonProperty("doc_id")
+        public String docId;
+        @JsonProperty("doc_status")
+        public String docStatus;
+        @JsonProperty("doc_type")
+        public String docType;
+        public boolean importRequest;
+        @JsonProperty("ownerInn")
+        public String ownerInn;
+        @JsonProperty("participant_inn")
+        public String participantInn;
+        @JsonProperty("producerInn")
+        public String producerInn;
+        @JsonProperty("productioDate")
+        public LocalDate productionDate;
+        @JsonProperty("production_type")
+        public String productionType;
+        public List<Product> products;
+        @JsonProperty("reg_date")
+        public LocalDate regDate;
+        @JsonProperty("reg_number")
+        public String regNumber;
+
+        /**
+         * Внутренний класс для описания документа.
+         */
+        @Builder
+        public static class Description {
+            public final String participantInn;
+        }
+
+        /**
+         * Внутренний класс для представления продукта в документе.
+         */
+        @Builder
+        public static class Product {
+            @JsonProperty("certificate_document")
+            public String certificateDocument;
+            @JsonProperty("certificate_document_date")
+            public LocalDate certificateDocumentDate;
+            @JsonProperty("certificate_document_number")
+            public String certificateDocumentNumber;
+            @JsonProperty("owner_inn")
+            public String ownerInn;
+            @JsonProperty("producer_inn")
+            public String producerInn;
+            @JsonProperty("production_date")
+            public LocalDate productioDate;
+            @JsonProperty("tnved_code")
+            public String tnvedCode;
+            @JsonProperty("uit_code")
+            public String uitCode;
+            @JsonProperty("uitu_code")
+            public String uituCode;
+        }
+
+        /**
+         * Перечисление типов документов.
+         */
+        public enum DocType {
+            LP_INTRODUCE_GOODS
+        }
+
+        /**
+         * Перечисление статусов документов.
+         */
+        public enum DocStatus {
+            NEW
+        }
+
+        /**
+         * Перечисление типов продуктов.
+         */
+        public enum ProductType {
+            PRODUCT_TYPE
+        }
+    }
+
+    public static void main(String[] args) {
+        CrptApi crptApi = new CrptApi(TimeUnit.SECONDS, 3);
+
+        Document.Description description = Document.Description.builder()
+                .participantInn("12345")
+                .build();
+
+        Document.Product product = Document.Product.builder()
+                .certificateDocument("doc")
+                .certificateDocumentDate(LocalDate.of(2024, 2, 12))
+                .certificateDocumentNumber("num")
+                .ownerInn("1234567890")
+                .producerInn("1234567890")
+                .productioDate(LocalDate.of(2024, 2, 12))
+                .tnvedCode("code")
+                .uitCode("uit")
+                .uituCode("uitu")
+                .build();
+
+        Document document = Document.builder()
+                .description(description)
+                .docId("1234")
+                .docStatus(Document.DocStatus.NEW.name())
+                .docType(Document.DocType.LP_INTRODUCE_GOODS.toString())
+                .importRequest(true)
+                .ownerInn("1234567890")
+                .participantInn("1234567890")
+                .producerInn("1234567890")
+                .productionDate(LocalDate.of(2024, 2, 12))
+                .productionType(Document.ProductType.PRODUCT_TYPE.name())
+                .products(new ArrayList<>(List.of(product)))
+                .regDate(LocalDate.of(2024, 2, 12))
+                .regNumber("reg123")
+                .build();
+
+        String signature = "signature";
+
+        DocumentClient documentClient = crptApi.createDocumentClient();
+
+        DocumentController documentController = DocumentController.builder()
+                .documentClient(documentClient)
+                .build();
+
+        for (int i = 0; i < 10; i++) {
+            documentController.createDocument(document, signature);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,48 @@
+package ru.panov;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CheckedRateLimiterTest {
+
+    @Test
+    void reportsEveryPermitOverLimitWithinWindow() throws InterruptedException {
+        AtomicInteger reported = new AtomicInteger();
+        CrptApi.CheckedRateLimiter checker = new CrptApi.CheckedRateLimiter(() -> {
+        }, TimeUnit.SECONDS, 10, reported::incrementAndGet);
+
+        for (int i = 0; i < 13; i++) {
+            checker.acquire();
+        }
+
+        assertEquals(13, checker.getGranted());
+        assertEquals(3, checker.getViolations());
+        assertEquals(3, reported.get());
+    }
+
+    @Test
+    void acceptsPermitsSpacedByWindow() throws InterruptedException {
+        CrptApi.CheckedRateLimiter checker = new CrptApi.CheckedRateLimiter(() -> TimeUnit.MILLISECONDS.sleep(2),
+                TimeUnit.MILLISECONDS, 1, () -> {
+        });
+
+        for (int i = 0; i < 20; i++) {
+            checker.acquire();
+        }
+
+        assertEquals(0, checker.getViolations());
+    }
+
+    @Test
+    void rejectsToleranceNotShorterThanWindow() {
+        assertThrows(IllegalArgumentException.class, () -> new CrptApi.CheckedRateLimiter(() -> {
+        }, TimeUnit.MILLISECONDS, 10, Duration.ofMillis(1), () -> {
+        }));
+    }
+}
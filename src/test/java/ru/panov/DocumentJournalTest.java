@@ -0,0 +1,169 @@
+package ru.panov;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DocumentJournalTest {
+    private static final int SEGMENT_SIZE = 64 * 1024;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void reopenedJournalReturnsOnlyPendingRecords() throws IOException {
+        try (CrptApi.DocumentJournal journal = new CrptApi.DocumentJournal(directory, SEGMENT_SIZE)) {
+            long acknowledged = journal.append(bytes("first"), "signature");
+            journal.append(bytes("second"), "signature");
+            journal.acknowledge(acknowledged);
+        }
+
+        try (CrptApi.DocumentJournal journal = new CrptApi.DocumentJournal(directory, SEGMENT_SIZE)) {
+            List<CrptApi.DocumentJournal.JournalRecord> pending = journal.pendingRecords();
+            assertEquals(1, pending.size());
+            assertArrayEquals(bytes("second"), pending.get(0).getBody());
+        }
+    }
+
+    @Test
+    void directoryCannotBeOpenedTwice() throws IOException {
+        try (CrptApi.DocumentJournal ignored = new CrptApi.DocumentJournal(directory, SEGMENT_SIZE)) {
+            assertThrows(IOException.class, () -> new CrptApi.DocumentJournal(directory, SEGMENT_SIZE));
+        }
+        new CrptApi.DocumentJournal(directory, SEGMENT_SIZE).close();
+    }
+
+    @Test
+    void closedJournalRejectsAppendsAndKeepsRecordsPending() throws IOException {
+        CrptApi.DocumentJournal journal = new CrptApi.DocumentJournal(directory, SEGMENT_SIZE);
+        long id = journal.append(bytes("document"), "signature");
+        journal.close();
+
+        journal.acknowledge(id);
+        assertThrows(IOException.class, () -> journal.append(bytes("late"), "signature"));
+        try (CrptApi.DocumentJournal reopened = new CrptApi.DocumentJournal(directory, SEGMENT_SIZE)) {
+            assertEquals(1, reopened.pendingRecords().size());
+        }
+    }
+
+    @Test
+    void secondCrptApiCannotShareJournalUntilFirstIsClosed() {
+        CrptApi.Settings settings = CrptApi.Settings.builder()
+                .journalDirectory(directory)
+                .journalSegmentSize(SEGMENT_SIZE)
+                .build();
+        try (CrptApi ignored = new CrptApi(TimeUnit.SECONDS, 10, settings)) {
+            assertThrows(UncheckedIOException.class, () -> new CrptApi(TimeUnit.SECONDS, 10, settings));
+        }
+        new CrptApi(TimeUnit.SECONDS, 10, settings).close();
+    }
+
+    @Test
+    void rejectedDocumentsAreNotReplayed() throws IOException {
+        int documents = 10;
+        int rejected = 0;
+        try (StubServer server = StubServer.builder().build();
+             CrptApi api = new CrptApi(TimeUnit.SECONDS, 1, journaled(server)
+                     .limiterType(CrptApi.LimiterType.GCRA)
+                     .queueCapacity(1)
+                     .overflowPolicy(CrptApi.OverflowPolicy.FAIL_FAST)
+                     .build())) {
+            List<CompletableFuture<CrptApi.CreateDocumentResult>> results = submit(api, documents);
+            for (CompletableFuture<CrptApi.CreateDocumentResult> result : results) {
+                try {
+                    assertEquals(200, result.join().getStatusCode());
+                } catch (CompletionException e) {
+                    assertInstanceOf(RejectedExecutionException.class, e.getCause());
+                    rejected++;
+                }
+            }
+        }
+
+        assertTrue(rejected > 0);
+        assertDrained();
+    }
+
+    @Test
+    void finalErrorResponsesAreNotReplayed() throws IOException {
+        try (StubServer server = StubServer.builder().build();
+             CrptApi api = new CrptApi(TimeUnit.SECONDS, 100, journaled(server)
+                     .apiUri(server.getUri().resolve("/missing"))
+                     .retryPolicy(CrptApi.RetryPolicy.builder().build())
+                     .build())) {
+            submit(api, 3).forEach(result -> assertEquals(404, result.join().getStatusCode()));
+        }
+
+        assertDrained();
+    }
+
+    @Test
+    void documentInFlightAtCloseIsReplayed() throws IOException, InterruptedException {
+        try (StubServer server = StubServer.builder()
+                .latency(StubServer.LatencyModel.fixed(Duration.ofSeconds(5)))
+                .build()) {
+            try (CrptApi api = new CrptApi(TimeUnit.SECONDS, 100, journaled(server).build())) {
+                submit(api, 1);
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+                while (server.getReceived() == 0 && System.nanoTime() - deadline < 0) {
+                    TimeUnit.MILLISECONDS.sleep(10);
+                }
+                assertEquals(1, server.getReceived());
+            }
+        }
+
+        try (CrptApi.DocumentJournal journal = new CrptApi.DocumentJournal(directory, SEGMENT_SIZE)) {
+            assertEquals(1, journal.pendingRecords().size());
+        }
+    }
+
+    private CrptApi.Settings.SettingsBuilder journaled(StubServer server) {
+        return CrptApi.Settings.builder()
+                .apiUri(server.getUri())
+                .journalDirectory(directory)
+                .journalSegmentSize(SEGMENT_SIZE);
+    }
+
+    private static List<CompletableFuture<CrptApi.CreateDocumentResult>> submit(CrptApi api, int documents) {
+        CrptApi.RestDocumentClientImpl client = api.createDocumentClient();
+        List<CompletableFuture<CrptApi.CreateDocumentResult>> results = new ArrayList<>();
+        for (int i = 0; i < documents; i++) {
+            results.add(client.createDocumentAsync(CrptApi.Document.builder().docId("doc-" + i).build(), "signature"));
+        }
+        return results;
+    }
+
+    /**
+     * Проверяет, что в журнале не осталось неподтвержденных записей, а сегменты удалены.
+     */
+    private void assertDrained() throws IOException {
+        try (CrptApi.DocumentJournal journal = new CrptApi.DocumentJournal(directory, SEGMENT_SIZE)) {
+            assertEquals(0, journal.pendingRecords().size());
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(0, files.filter(file -> file.getFileName().toString().endsWith(".seg")).count());
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
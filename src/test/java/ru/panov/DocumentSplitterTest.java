@@ -0,0 +1,129 @@
+package ru.panov;
+
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DocumentSplitterTest {
+    private final CrptApi.DocumentSerializer serializer = new CrptApi.DocumentSerializer(JsonMapper.builder()
+            .addModule(new JavaTimeModule())
+            .build());
+
+    @Test
+    void partsKeepProductOrderAndStayWithinLimits() throws IOException {
+        CrptApi.Document document = document(100);
+        int maxBytes = serializer.serialize(document(7)).length;
+        CrptApi.DocumentSplitter splitter = new CrptApi.DocumentSplitter(30, maxBytes);
+
+        List<CrptApi.DocumentSplitter.Part> parts = splitter.split(document, serializer::serialize);
+
+        List<CrptApi.Document.Product> products = new ArrayList<>();
+        for (CrptApi.DocumentSplitter.Part part : parts) {
+            assertTrue(part.getDocument().products.size() <= 30);
+            assertTrue(part.getBody().length <= maxBytes, () -> part.getBody().length + " > " + maxBytes);
+            assertEquals(serializer.serialize(part.getDocument()).length, part.getBody().length);
+            assertEquals(document.docId, part.getDocument().docId);
+            products.addAll(part.getDocument().products);
+        }
+        assertTrue(parts.size() > 4);
+        assertEquals(document.products, products);
+    }
+
+    @Test
+    void documentOverByteLimitIsSerializedOnlyOnce() throws IOException {
+        CrptApi.Document document = document(40);
+        int maxBytes = serializer.serialize(document(10)).length;
+        Map<CrptApi.Document, Integer> serializations = new IdentityHashMap<>();
+
+        List<CrptApi.DocumentSplitter.Part> parts = new CrptApi.DocumentSplitter(100, maxBytes)
+                .split(document, part -> {
+                    serializations.merge(part, 1, Integer::sum);
+                    return serializer.serialize(part);
+                });
+
+        assertTrue(parts.size() > 1);
+        assertEquals(1, serializations.get(document));
+        assertEquals(1, serializations.keySet().stream().filter(part -> part.products.size() == 40).count());
+        serializations.values().forEach(count -> assertEquals(1, count));
+    }
+
+    @Test
+    void documentWithinLimitsIsNotSplit() throws IOException {
+        CrptApi.Document document = document(5);
+
+        List<CrptApi.DocumentSplitter.Part> parts = new CrptApi.DocumentSplitter(5, Integer.MAX_VALUE)
+                .split(document, serializer::serialize);
+
+        assertEquals(1, parts.size());
+        assertSame(document, parts.get(0).getDocument());
+    }
+
+    @Test
+    void aggregatedResultReportsFirstFailedPart() {
+        CrptApi.CreateDocumentResult ok = CrptApi.CreateDocumentResult.builder().statusCode(200).build();
+        CrptApi.CreateDocumentResult unavailable = CrptApi.CreateDocumentResult.builder()
+                .statusCode(503).errorBody("unavailable").build();
+        CrptApi.CreateDocumentResult badRequest = CrptApi.CreateDocumentResult.builder()
+                .statusCode(400).errorBody("bad request").build();
+
+        CrptApi.CreateDocumentResult failed = CrptApi.CreateDocumentResult.aggregate(
+                List.of(ok, unavailable, badRequest), System.nanoTime());
+        CrptApi.CreateDocumentResult succeeded = CrptApi.CreateDocumentResult.aggregate(
+                List.of(ok, ok), System.nanoTime());
+
+        assertFalse(failed.isSuccess());
+        assertEquals(503, failed.getStatusCode());
+        assertEquals("unavailable", failed.getErrorBody());
+        assertEquals(3, failed.getParts().size());
+        assertTrue(succeeded.isSuccess());
+        assertNull(succeeded.getErrorBody());
+    }
+
+    @Test
+    void splitDocumentIsSentInPartsAndReportedAsOne() throws IOException {
+        try (StubServer server = StubServer.builder().build();
+             CrptApi api = new CrptApi(TimeUnit.SECONDS, 100, CrptApi.Settings.builder()
+                     .apiUri(server.getUri())
+                     .splitMaxProducts(10)
+                     .build())) {
+            CrptApi.CreateDocumentResult result = api.createDocumentClient()
+                    .createDocumentAsync(document(35), "signature")
+                    .join();
+
+            assertTrue(result.isSuccess());
+            assertEquals(4, result.getParts().size());
+            assertEquals(4, server.getSucceeded());
+        }
+    }
+
+    private static CrptApi.Document document(int productCount) {
+        List<CrptApi.Document.Product> products = new ArrayList<>();
+        for (int i = 0; i < productCount; i++) {
+            products.add(CrptApi.Document.Product.builder()
+                    .certificateDocumentDate(LocalDate.of(2024, 2, 12))
+                    .ownerInn("1234567890")
+                    .tnvedCode("6401100000")
+                    .uitCode("uit-" + i)
+                    .build());
+        }
+        return CrptApi.Document.builder()
+                .docId("doc-" + productCount)
+                .participantInn("1234567890")
+                .products(products)
+                .build();
+    }
+}
@@ -0,0 +1,79 @@
+package ru.panov;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Справедливая очередь под перекошенной нагрузкой: крупный участник ставит в очередь пачку документов,
+ * сразу за ним небольшой участник. Документы небольшого участника должны уходить вперемешку
+ * с документами крупного во всех режимах выполнения, а не после всей его пачки.
+ */
+class FairQueueingTest {
+    private static final int PARALLELISM = 2;
+    private static final int LARGE_TENANT_DOCUMENTS = 40;
+    private static final int SMALL_TENANT_DOCUMENTS = 5;
+
+    private final List<String> arrivals = Collections.synchronizedList(new ArrayList<>());
+    private StubServer server;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = StubServer.builder()
+                .requestListener(arrivals::add)
+                .handlerThreads(1)
+                .build();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.close();
+    }
+
+    @ParameterizedTest
+    @EnumSource(CrptApi.ExecutionMode.class)
+    void smallTenantIsServedBetweenLargeTenantDocuments(CrptApi.ExecutionMode executionMode) {
+        CrptApi.Settings settings = CrptApi.Settings.builder()
+                .apiUri(server.getUri())
+                .limiterType(CrptApi.LimiterType.GCRA)
+                .fairQueueing(true)
+                .executionMode(executionMode)
+                .parallelism(PARALLELISM)
+                .build();
+        try (CrptApi api = new CrptApi(TimeUnit.SECONDS, 100, settings)) {
+            CrptApi.RestDocumentClientImpl client = api.createDocumentClient();
+            List<CompletableFuture<CrptApi.CreateDocumentResult>> results = new ArrayList<>();
+            for (int i = 0; i < LARGE_TENANT_DOCUMENTS; i++) {
+                results.add(client.createDocumentAsync(document("large"), "large"));
+            }
+            for (int i = 0; i < SMALL_TENANT_DOCUMENTS; i++) {
+                results.add(client.createDocumentAsync(document("small"), "small"));
+            }
+            results.forEach(result -> assertTrue(result.join().isSuccess()));
+        }
+
+        assertEquals(LARGE_TENANT_DOCUMENTS + SMALL_TENANT_DOCUMENTS, arrivals.size());
+        // Небольшой участник ждет не больше задач, уже переданных исполнителю, и по одной задаче крупного на каждый свой документ.
+        int lastSmall = arrivals.lastIndexOf("small");
+        int bound = 2 * SMALL_TENANT_DOCUMENTS + PARALLELISM + 1;
+        assertTrue(lastSmall <= bound, () -> "small tenant finished at position " + lastSmall + ": " + arrivals);
+    }
+
+    private static CrptApi.Document document(String participantInn) {
+        return CrptApi.Document.builder()
+                .docId(participantInn)
+                .participantInn(participantInn)
+                .build();
+    }
+}
@@ -0,0 +1,75 @@
+package ru.panov;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FairRequestQueueTest {
+    @Test
+    void removeKeepsRoundRobinOrderAndFreesCapacity() {
+        CrptApi.FairRequestQueue queue = new CrptApi.FairRequestQueue(4, Map.of());
+        TenantTask a1 = new TenantTask("a", "a1");
+        TenantTask a2 = new TenantTask("a", "a2");
+        TenantTask b1 = new TenantTask("b", "b1");
+        TenantTask c1 = new TenantTask("c", "c1");
+        List.of(a1, a2, b1, c1).forEach(queue::offer);
+        assertFalse(queue.offer(new TenantTask("d", "d1")));
+
+        assertTrue(queue.remove(b1));
+        assertFalse(queue.remove(b1));
+        assertTrue(queue.offer(new TenantTask("b", "b2")));
+
+        assertEquals(List.of("a1", "c1", "b2", "a2"), drain(queue));
+    }
+
+    @Test
+    void bulkRemovalGoesThroughQueue() {
+        CrptApi.FairRequestQueue queue = new CrptApi.FairRequestQueue(8, Map.of());
+        List.of(new TenantTask("a", "a1"), new TenantTask("b", "b1"), new TenantTask("a", "a2"),
+                new TenantTask("b", "b2")).forEach(queue::offer);
+
+        assertTrue(queue.removeIf(task -> ((TenantTask) task).name.equals("a1")));
+        assertTrue(queue.removeIf(task -> ((TenantTask) task).tenant.equals("b")));
+
+        assertEquals(1, queue.size());
+        assertEquals(List.of("a2"), drain(queue));
+    }
+
+    private static List<String> drain(CrptApi.FairRequestQueue queue) {
+        List<String> names = new ArrayList<>();
+        CrptApi.RequestTask task;
+        while ((task = queue.poll()) != null) {
+            names.add(((TenantTask) task).name);
+        }
+        return names;
+    }
+
+    private static class TenantTask implements CrptApi.RequestTask {
+        private final String tenant;
+        private final String name;
+
+        TenantTask(String tenant, String name) {
+            this.tenant = tenant;
+            this.name = name;
+        }
+
+        @Override
+        public void run() {
+        }
+
+        @Override
+        public void reject(Exception cause) {
+        }
+
+        @Override
+        public String tenant() {
+            return tenant;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package ru.panov;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class HierarchicalRateLimiterTest {
+
+    @Test
+    void evictsTenantsIdleForMoreThanWindow() throws InterruptedException {
+        CrptApi.HierarchicalRateLimiter limiter = new CrptApi.HierarchicalRateLimiter(TimeUnit.MILLISECONDS, 100,
+                Map.of(), 10);
+        for (int i = 0; i < 50; i++) {
+            limiter.acquire("idle-" + i);
+        }
+
+        TimeUnit.MILLISECONDS.sleep(5);
+        limiter.acquire("active");
+        limiter.acquire("idle-0");
+
+        assertEquals(2, limiter.getTenantCount());
+    }
+}
@@ -0,0 +1,130 @@
+package ru.panov;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Нагрузочная проверка ограничителей: 64 потока непрерывно запрашивают разрешения,
+ * и после прогона все начала запросов сверяются с лимитом. Прогон длиннее окна,
+ * поэтому проверяются и стыки окон.
+ * <p>
+ * Началом запроса считается возврат из {@link CrptApi.RateLimiter#acquire()}: каждый поток записывает
+ * время в свой массив без блокировок, поэтому запись не переставляет начала, как общий журнал
+ * {@link CrptApi.CheckedRateLimiter}. Окна считаются по отсортированному журналу с допуском
+ * по умолчанию - 1% окна.
+ */
+class RateLimiterStressTest {
+    private static final int THREADS = 64;
+    private static final int REQUEST_LIMIT = 500;
+    private static final Duration RUN_TIME = Duration.ofMillis(2500);
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long TOLERANCE_NANOS = WINDOW_NANOS / 100;
+    private static final int MAX_GRANTS_PER_THREAD = REQUEST_LIMIT * 4;
+
+    @TempDir
+    Path directory;
+
+    @ParameterizedTest
+    @CsvSource({"SLIDING_WINDOW, false", "SLIDING_WINDOW, true", "GCRA, false", "GCRA, true"})
+    void limiterTypeNeverExceedsLimit(CrptApi.LimiterType limiterType, boolean adaptive) throws InterruptedException {
+        CrptApi.RateLimiter limiter = limiterType.create(TimeUnit.SECONDS, REQUEST_LIMIT);
+        CrptApi.RateLimiter tested = adaptive
+                ? new CrptApi.AdaptiveRateLimiter(limiter, TimeUnit.SECONDS, REQUEST_LIMIT)
+                : limiter;
+        stress(thread -> tested);
+    }
+
+    @Test
+    void hierarchicalNeverExceedsParentLimit() throws InterruptedException {
+        CrptApi.HierarchicalRateLimiter limiter = new CrptApi.HierarchicalRateLimiter(TimeUnit.SECONDS, REQUEST_LIMIT,
+                Map.of("tenant-0", REQUEST_LIMIT / 2, "tenant-1", REQUEST_LIMIT / 4), REQUEST_LIMIT / 10);
+        stress(thread -> {
+            String tenant = "tenant-" + thread % 4;
+            return () -> limiter.acquire(tenant);
+        });
+    }
+
+    @Test
+    void sharedMemoryViewsNeverExceedLimit() throws InterruptedException, IOException {
+        Path file = directory.resolve("limit.bin");
+        CrptApi.RateLimiter[] views = {
+                new CrptApi.SharedMemoryRateLimiter(file, TimeUnit.SECONDS, REQUEST_LIMIT),
+                new CrptApi.SharedMemoryRateLimiter(file, TimeUnit.SECONDS, REQUEST_LIMIT)
+        };
+        stress(thread -> views[thread % views.length]);
+    }
+
+    @Test
+    void leasingNodesNeverExceedClusterLimit() throws InterruptedException {
+        CrptApi.InProcessQuotaCoordinator coordinator =
+                new CrptApi.InProcessQuotaCoordinator(TimeUnit.SECONDS, REQUEST_LIMIT, Duration.ofMillis(100));
+        CrptApi.RateLimiter[] nodes = new CrptApi.RateLimiter[4];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = new CrptApi.LeasingRateLimiter(coordinator, "node-" + i, REQUEST_LIMIT / 20);
+        }
+        stress(thread -> nodes[thread % nodes.length]);
+    }
+
+    /**
+     * Запускает потоки, каждый из которых получает разрешения у своего ограничителя,
+     * и сверяет все разрешения с общим лимитом.
+     *
+     * @param limiterForThread ограничитель потока по его номеру
+     */
+    private static void stress(IntFunction<CrptApi.RateLimiter> limiterForThread) throws InterruptedException {
+        long[][] startTimes = new long[THREADS][MAX_GRANTS_PER_THREAD];
+        int[] starts = new int[THREADS];
+        long deadline = System.nanoTime() + RUN_TIME.toNanos();
+        ExecutorService threads = Executors.newFixedThreadPool(THREADS);
+        for (int i = 0; i < THREADS; i++) {
+            int thread = i;
+            CrptApi.RateLimiter limiter = limiterForThread.apply(thread);
+            threads.execute(() -> {
+                try {
+                    while (System.nanoTime() - deadline < 0 && starts[thread] < MAX_GRANTS_PER_THREAD) {
+                        limiter.acquire();
+                        startTimes[thread][starts[thread]++] = System.nanoTime();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        TimeUnit.NANOSECONDS.sleep(RUN_TIME.toNanos());
+        threads.shutdownNow();
+        assertTrue(threads.awaitTermination(10, TimeUnit.SECONDS), "limiter threads did not stop");
+
+        long[] started = new long[Arrays.stream(starts).sum()];
+        int position = 0;
+        for (int i = 0; i < THREADS; i++) {
+            System.arraycopy(startTimes[i], 0, started, position, starts[i]);
+            position += starts[i];
+        }
+        Arrays.sort(started);
+        int violations = 0;
+        for (int i = REQUEST_LIMIT; i < started.length; i++) {
+            if (started[i] - started[i - REQUEST_LIMIT] < WINDOW_NANOS - TOLERANCE_NANOS) {
+                violations++;
+            }
+        }
+        int violated = violations;
+        assertEquals(0, violated, () -> violated + " of " + started.length
+                + " requests started over " + REQUEST_LIMIT + " per second");
+        assertTrue(started.length >= REQUEST_LIMIT, () -> "only " + started.length + " requests started");
+    }
+}
@@ -0,0 +1,292 @@
+package ru.panov;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RequestQueueTest {
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    @TempDir
+    Path spillDirectory;
+
+    @Test
+    void blockWaitsForFreeSpace() throws InterruptedException {
+        CrptApi.RequestQueue queue = new CrptApi.RequestQueue(1, CrptApi.OverflowPolicy.BLOCK, spillDirectory);
+        TestTask first = new TestTask("first");
+        TestTask second = new TestTask("second");
+        queue.put(first);
+
+        Thread producer = new Thread(() -> {
+            try {
+                queue.put(second);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+        long deadline = System.nanoTime() + TIMEOUT.toNanos();
+        while (producer.getState() != Thread.State.WAITING && System.nanoTime() - deadline < 0) {
+            Thread.onSpinWait();
+        }
+        assertEquals(Thread.State.WAITING, producer.getState());
+
+        assertSame(first, queue.take());
+        producer.join(TIMEOUT.toMillis());
+        assertFalse(producer.isAlive());
+        assertSame(second, queue.take());
+        assertNull(second.rejected);
+    }
+
+    @Test
+    void failFastRejectsNewTask() throws InterruptedException {
+        CrptApi.RequestQueue queue = new CrptApi.RequestQueue(1, CrptApi.OverflowPolicy.FAIL_FAST, spillDirectory);
+        TestTask first = new TestTask("first");
+        TestTask second = new TestTask("second");
+
+        queue.put(first);
+        queue.put(second);
+
+        assertInstanceOf(RejectedExecutionException.class, second.rejected);
+        assertNull(first.rejected);
+        assertEquals(1, queue.size());
+        assertSame(first, queue.take());
+    }
+
+    @Test
+    void dropOldestRejectsHeadAndKeepsOrder() throws InterruptedException {
+        CrptApi.RequestQueue queue = new CrptApi.RequestQueue(2, CrptApi.OverflowPolicy.DROP_OLDEST, spillDirectory);
+        List<TestTask> tasks = List.of(new TestTask("1"), new TestTask("2"), new TestTask("3"), new TestTask("4"));
+
+        for (TestTask task : tasks) {
+            queue.put(task);
+        }
+
+        assertInstanceOf(RejectedExecutionException.class, tasks.get(0).rejected);
+        assertInstanceOf(RejectedExecutionException.class, tasks.get(1).rejected);
+        assertSame(tasks.get(2), queue.take());
+        assertSame(tasks.get(3), queue.take());
+        assertNull(tasks.get(3).rejected);
+    }
+
+    @Test
+    void spilledTasksRefillInSubmissionOrder() throws InterruptedException {
+        CrptApi.RequestQueue queue = new CrptApi.RequestQueue(2, CrptApi.OverflowPolicy.SPILL_TO_DISK, spillDirectory);
+        for (int i = 0; i < 6; i++) {
+            queue.put(new TestTask(String.valueOf(i)));
+        }
+        assertEquals(6, queue.size());
+
+        List<String> taken = new ArrayList<>();
+        // Пока на диске есть задачи, новая задача тоже уходит на диск, даже если в очереди освободилось место.
+        taken.add(((TestTask) queue.take()).name);
+        queue.put(new TestTask("6"));
+        while (queue.size() > 0) {
+            taken.add(((TestTask) queue.take()).name);
+        }
+
+        assertEquals(List.of("0", "1", "2", "3", "4", "5", "6"), taken);
+    }
+
+    @Test
+    void slowSpillDoesNotBlockOtherProducers() throws InterruptedException {
+        CrptApi.RequestQueue queue = new CrptApi.RequestQueue(1, CrptApi.OverflowPolicy.SPILL_TO_DISK, spillDirectory);
+        TestTask slow = new TestTask("1");
+        slow.spillStarted = new CountDownLatch(1);
+        slow.spillReleased = new CountDownLatch(1);
+        queue.put(new TestTask("0"));
+        Thread producer = new Thread(() -> {
+            try {
+                queue.put(slow);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+        assertTrue(slow.spillStarted.await(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS));
+
+        // Пока первая задача пишется на диск, очередь доступна, а следующая задача встает за ней.
+        List<String> taken = new ArrayList<>();
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            assertEquals(2, queue.size());
+            queue.put(new TestTask("2"));
+            assertEquals(3, queue.size());
+            taken.add(((TestTask) queue.take()).name);
+        });
+        slow.spillReleased.countDown();
+        producer.join(TIMEOUT.toMillis());
+        assertFalse(producer.isAlive());
+        while (queue.size() > 0) {
+            taken.add(((TestTask) queue.take()).name);
+        }
+
+        assertEquals(List.of("0", "1", "2"), taken);
+    }
+
+    @Test
+    void failedSpillRejectsTask() throws InterruptedException {
+        CrptApi.RequestQueue queue = new CrptApi.RequestQueue(1, CrptApi.OverflowPolicy.SPILL_TO_DISK, spillDirectory);
+        TestTask unspillable = new TestTask("unspillable");
+        unspillable.spillError = new IOException("disk full");
+        queue.put(new TestTask("first"));
+
+        queue.put(unspillable);
+
+        assertSame(unspillable.spillError, unspillable.rejected);
+        assertEquals(1, queue.size());
+    }
+
+    @Test
+    void closeRejectsQueuedSpilledAndLaterTasks() throws InterruptedException {
+        CrptApi.RequestQueue queue = new CrptApi.RequestQueue(1, CrptApi.OverflowPolicy.SPILL_TO_DISK, spillDirectory);
+        TestTask queued = new TestTask("queued");
+        TestTask spilled = new TestTask("spilled");
+        TestTask late = new TestTask("late");
+        TestTask offered = new TestTask("offered");
+        queue.put(queued);
+        queue.put(spilled);
+
+        queue.close();
+        queue.put(late);
+
+        assertTrue(queue.offer(offered));
+        for (TestTask task : List.of(queued, spilled, late, offered)) {
+            assertInstanceOf(CancellationException.class, task.rejected, task.name);
+        }
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    void closeCompletesPendingDocuments() throws IOException {
+        try (StubServer server = StubServer.builder().build()) {
+            CrptApi api = new CrptApi(TimeUnit.MINUTES, 1, CrptApi.Settings.builder()
+                    .apiUri(server.getUri())
+                    .build());
+            CrptApi.RestDocumentClientImpl client = api.createDocumentClient();
+            List<CompletableFuture<CrptApi.CreateDocumentResult>> results = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                results.add(client.createDocumentAsync(CrptApi.Document.builder().docId("doc-" + i).build(), "signature"));
+            }
+
+            // Первый документ отправлен, второй ждет ограничителя, остальные - в очереди.
+            assertTimeoutPreemptively(TIMEOUT, () -> assertTrue(results.get(0).join().isSuccess()));
+
+            api.close();
+
+            assertTimeoutPreemptively(TIMEOUT, () -> CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0]))
+                    .handle((ignored, e) -> e)
+                    .join());
+            assertTrue(results.get(1).isCompletedExceptionally());
+            results.subList(2, results.size()).forEach(result -> assertTrue(result.isCancelled()));
+            CompletableFuture<CrptApi.CreateDocumentResult> late =
+                    client.createDocumentAsync(CrptApi.Document.builder().docId("late").build(), "signature");
+            CompletionException rejected = assertThrows(CompletionException.class, late::join);
+            assertInstanceOf(IllegalStateException.class, rejected.getCause());
+        }
+    }
+
+    @Test
+    void spilledDocumentsAreSentOrRejectedWithoutLeavingFiles() throws IOException, InterruptedException {
+        CrptApi.RequestQueue queue = new CrptApi.RequestQueue(1, CrptApi.OverflowPolicy.SPILL_TO_DISK, spillDirectory);
+        ObjectMapper objectMapper = JsonMapper.builder().addModule(new JavaTimeModule()).build();
+        try (StubServer server = StubServer.builder().build()) {
+            CrptApi.RestDocumentClientImpl client = CrptApi.RestDocumentClientImpl.builder()
+                    .apiUri(server.getUri())
+                    .httpClient(HttpClient.newHttpClient())
+                    .objectMapper(objectMapper)
+                    .documentSerializer(new CrptApi.DocumentSerializer(objectMapper))
+                    .rateLimiter(() -> {
+                    })
+                    .requestQueue(queue)
+                    .build();
+            List<CompletableFuture<CrptApi.CreateDocumentResult>> results = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                results.add(client.createDocumentAsync(CrptApi.Document.builder().docId("doc-" + i).build(), "signature"));
+            }
+            assertEquals(2, spillFiles());
+
+            queue.take().run();
+            queue.take().reject(new RejectedExecutionException("rejected"));
+            queue.take().run();
+
+            assertTimeoutPreemptively(TIMEOUT, () -> {
+                assertTrue(results.get(0).join().isSuccess());
+                CompletionException rejected = assertThrows(CompletionException.class, () -> results.get(1).join());
+                assertInstanceOf(RejectedExecutionException.class, rejected.getCause());
+                assertTrue(results.get(2).join().isSuccess());
+            });
+            assertEquals(0, spillFiles());
+            assertEquals(2, server.getSucceeded());
+        }
+    }
+
+    private long spillFiles() throws IOException {
+        try (Stream<Path> files = Files.list(spillDirectory)) {
+            return files.count();
+        }
+    }
+
+    private static class TestTask implements CrptApi.RequestTask {
+        private final String name;
+        private Exception rejected;
+        private IOException spillError;
+        private CountDownLatch spillStarted;
+        private CountDownLatch spillReleased;
+
+        TestTask(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void run() {
+        }
+
+        @Override
+        public void reject(Exception cause) {
+            rejected = cause;
+        }
+
+        @Override
+        public CrptApi.RequestTask spill(Path directory) throws IOException {
+            if (spillStarted != null) {
+                spillStarted.countDown();
+                try {
+                    spillReleased.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+            }
+            if (spillError != null) {
+                throw spillError;
+            }
+            return this;
+        }
+    }
+}
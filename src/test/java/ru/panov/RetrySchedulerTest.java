@@ -0,0 +1,199 @@
+package ru.panov;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RetrySchedulerTest {
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    @TempDir
+    Path spillDirectory;
+
+    @Test
+    void retriesOnlyRetryableOutcomes() {
+        try (CrptApi.RetryScheduler scheduler = new CrptApi.RetryScheduler(CrptApi.RetryPolicy.builder().build())) {
+            assertTrue(scheduler.nextDelayNanos(0, 0, result(503), null) >= 0);
+            assertTrue(scheduler.nextDelayNanos(0, 0, result(429), null) >= 0);
+            assertTrue(scheduler.nextDelayNanos(0, 0, null, new IOException("reset")) >= 0);
+            assertTrue(scheduler.nextDelayNanos(0, 0, null, new CompletionException(new IOException("reset"))) >= 0);
+            assertEquals(-1, scheduler.nextDelayNanos(0, 0, result(400), null));
+            assertEquals(-1, scheduler.nextDelayNanos(0, 0, result(200), null));
+            assertEquals(-1, scheduler.nextDelayNanos(0, 0, null, new IllegalStateException()));
+            assertEquals(-1, scheduler.nextDelayNanos(2, 0, result(503), null), "maxAttempts is 3");
+        }
+    }
+
+    @Test
+    void delayStaysWithinBoundsAndHonoursRetryAfter() {
+        CrptApi.RetryPolicy policy = CrptApi.RetryPolicy.builder()
+                .baseDelay(Duration.ofMillis(10))
+                .maxDelay(Duration.ofMillis(100))
+                .maxAttempts(100)
+                .budgetCapacity(100)
+                .build();
+        try (CrptApi.RetryScheduler scheduler = new CrptApi.RetryScheduler(policy)) {
+            long previous = 0;
+            for (int attempt = 0; attempt < 20; attempt++) {
+                long delay = scheduler.nextDelayNanos(attempt, previous, result(503), null);
+                assertTrue(delay >= policy.getBaseDelay().toNanos() && delay <= policy.getMaxDelay().toNanos(),
+                        "delay " + delay);
+                previous = delay;
+            }
+            CrptApi.CreateDocumentResult throttled = CrptApi.CreateDocumentResult.builder()
+                    .statusCode(429)
+                    .retryAfter(Duration.ofSeconds(2))
+                    .build();
+            assertTrue(scheduler.nextDelayNanos(0, 0, throttled, null) >= Duration.ofSeconds(2).toNanos());
+        }
+    }
+
+    @Test
+    void budgetLimitsRetriesAndIsRefilledByFirstAttempts() {
+        CrptApi.RetryPolicy policy = CrptApi.RetryPolicy.builder()
+                .budgetCapacity(2)
+                .budgetRatio(0.5)
+                .build();
+        try (CrptApi.RetryScheduler scheduler = new CrptApi.RetryScheduler(policy)) {
+            assertTrue(scheduler.nextDelayNanos(0, 0, result(503), null) >= 0);
+            assertTrue(scheduler.nextDelayNanos(0, 0, result(503), null) >= 0);
+            assertEquals(-1, scheduler.nextDelayNanos(0, 0, result(503), null));
+
+            scheduler.recordRequest();
+            assertEquals(-1, scheduler.nextDelayNanos(0, 0, result(503), null));
+            scheduler.recordRequest();
+            scheduler.recordRequest();
+            assertTrue(scheduler.nextDelayNanos(0, 0, result(503), null) >= 0);
+            assertEquals(-1, scheduler.nextDelayNanos(0, 0, result(503), null));
+        }
+    }
+
+    @Test
+    void retriesPassThroughRateLimiter() throws IOException {
+        int requestLimit = 5;
+        int documents = 4;
+        int maxAttempts = 3;
+        try (StubServer server = StubServer.builder()
+                .serverErrorRate(1)
+                .limitTimeUnit(TimeUnit.SECONDS)
+                .requestLimit(requestLimit)
+                .limitTolerance(Duration.ofMillis(100))
+                .build();
+             CrptApi api = new CrptApi(TimeUnit.SECONDS, requestLimit, CrptApi.Settings.builder()
+                     .apiUri(server.getUri())
+                     .warmUp(true)
+                     .limiterType(CrptApi.LimiterType.GCRA)
+                     .retryPolicy(CrptApi.RetryPolicy.builder()
+                             .maxAttempts(maxAttempts)
+                             .baseDelay(Duration.ofMillis(1))
+                             .maxDelay(Duration.ofMillis(1))
+                             .build())
+                     .build())) {
+            CrptApi.RestDocumentClientImpl client = api.createDocumentClient();
+            List<CompletableFuture<CrptApi.CreateDocumentResult>> results = new ArrayList<>();
+            for (int i = 0; i < documents; i++) {
+                results.add(client.createDocumentAsync(CrptApi.Document.builder().docId("doc-" + i).build(), "signature"));
+            }
+            assertTimeoutPreemptively(TIMEOUT, () -> results.forEach(result -> result.join()));
+
+            assertEquals(documents * maxAttempts, server.getInjectedErrors());
+            assertEquals(0, server.getLimitViolations());
+            assertEquals(documents * maxAttempts, api.getMetrics().snapshot().getLimiterWait().getCount());
+        }
+    }
+
+    @Test
+    void fullQueueDoesNotBlockOtherRetries() throws InterruptedException {
+        CrptApi.RequestQueue full = new CrptApi.RequestQueue(1, CrptApi.OverflowPolicy.BLOCK, spillDirectory);
+        CrptApi.RequestQueue free = new CrptApi.RequestQueue(1, CrptApi.OverflowPolicy.BLOCK, spillDirectory);
+        CrptApi.RequestTask queued = new NoopTask();
+        CrptApi.RequestTask waiting = new NoopTask();
+        CrptApi.RequestTask other = new NoopTask();
+        full.put(queued);
+
+        try (CrptApi.RetryScheduler scheduler = new CrptApi.RetryScheduler(CrptApi.RetryPolicy.builder().build())) {
+            scheduler.requeue(full, () -> waiting, 0);
+            scheduler.requeue(free, () -> other, TimeUnit.MILLISECONDS.toNanos(20));
+
+            assertTimeoutPreemptively(Duration.ofSeconds(2), () -> assertSame(other, free.take()));
+            assertTimeoutPreemptively(Duration.ofSeconds(2), () -> {
+                assertSame(queued, full.take());
+                assertSame(waiting, full.take());
+            });
+        }
+    }
+
+    @Test
+    void retriesThroughBoundedQueueComplete() throws IOException {
+        int documents = 20;
+        int maxAttempts = 3;
+        try (StubServer server = StubServer.builder().serverErrorRate(1).build();
+             CrptApi api = new CrptApi(TimeUnit.SECONDS, 1000, CrptApi.Settings.builder()
+                     .apiUri(server.getUri())
+                     .queueCapacity(1)
+                     .retryPolicy(CrptApi.RetryPolicy.builder()
+                             .maxAttempts(maxAttempts)
+                             .baseDelay(Duration.ofMillis(1))
+                             .maxDelay(Duration.ofMillis(5))
+                             .build())
+                     .build())) {
+            CrptApi.RestDocumentClientImpl client = api.createDocumentClient();
+            assertTimeoutPreemptively(TIMEOUT, () -> {
+                List<CompletableFuture<CrptApi.CreateDocumentResult>> results = new ArrayList<>();
+                for (int i = 0; i < documents; i++) {
+                    results.add(client.createDocumentAsync(CrptApi.Document.builder().docId("doc-" + i).build(), "signature"));
+                }
+                results.forEach(result -> assertEquals(503, result.join().getStatusCode()));
+            });
+            assertEquals(documents * maxAttempts, server.getReceived());
+        }
+    }
+
+    @Test
+    void closeCancelsScheduledAndLaterRetries() throws InterruptedException {
+        CrptApi.RequestQueue queue = new CrptApi.RequestQueue(1, CrptApi.OverflowPolicy.BLOCK, spillDirectory);
+        NoopTask parked = new NoopTask();
+        NoopTask late = new NoopTask();
+        CrptApi.RetryScheduler scheduler = new CrptApi.RetryScheduler(CrptApi.RetryPolicy.builder().build());
+        scheduler.requeue(queue, () -> parked, TimeUnit.SECONDS.toNanos(10));
+
+        scheduler.close();
+        scheduler.requeue(queue, () -> late, 0);
+
+        assertInstanceOf(CancellationException.class, parked.rejected);
+        assertInstanceOf(CancellationException.class, late.rejected);
+        assertEquals(0, queue.size());
+    }
+
+    private static CrptApi.CreateDocumentResult result(int statusCode) {
+        return CrptApi.CreateDocumentResult.builder().statusCode(statusCode).build();
+    }
+
+    private static class NoopTask implements CrptApi.RequestTask {
+        private Exception rejected;
+
+        @Override
+        public void run() {
+        }
+
+        @Override
+        public void reject(Exception cause) {
+            rejected = cause;
+        }
+    }
+}
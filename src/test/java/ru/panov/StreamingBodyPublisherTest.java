@@ -0,0 +1,111 @@
+package ru.panov;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * {@link CrptApi.StreamingBodyPublisher} пишет имена полей и даты вручную,
+ * поэтому его вывод сверяется побайтно с сериализацией по аннотациям {@link CrptApi.Document}.
+ */
+class StreamingBodyPublisherTest {
+
+    @ParameterizedTest
+    @ValueSource(booleans = {true, false})
+    void streamingPublisherMatchesAnnotationDrivenOutput(boolean datesAsTimestamps) throws Exception {
+        ObjectMapper annotated = mapper(datesAsTimestamps);
+
+        for (CrptApi.Document document : documents()) {
+            CrptApi.StreamingBodyPublisher publisher = new CrptApi.StreamingBodyPublisher(annotated, document, 64);
+            assertEquals(annotated.writeValueAsString(document), publish(publisher));
+        }
+    }
+
+    private static ObjectMapper mapper(boolean datesAsTimestamps) {
+        return JsonMapper.builder()
+                .addModule(new JavaTimeModule())
+                .configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, datesAsTimestamps)
+                .build();
+    }
+
+    private static List<CrptApi.Document> documents() {
+        LocalDate date = LocalDate.of(2024, 2, 12);
+        List<CrptApi.Document.Product> products = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            products.add(CrptApi.Document.Product.builder()
+                    .certificateDocument("CONFORMITY_CERTIFICATE")
+                    .certificateDocumentDate(date.plusDays(i))
+                    .certificateDocumentNumber("RU-\"" + i + "\"")
+                    .ownerInn("1234567890")
+                    .producerInn(i % 2 == 0 ? null : "1234567890")
+                    .productioDate(LocalDate.of(10_000 + i, 1, 1))
+                    .tnvedCode("6401100000")
+                    .uitCode("uit-" + i)
+                    .uituCode("уиту-" + i)
+                    .build());
+        }
+        List<CrptApi.Document.Product> withNull = new ArrayList<>(products.subList(0, 3));
+        withNull.add(null);
+        CrptApi.Document full = CrptApi.Document.builder()
+                .description(CrptApi.Document.Description.builder().participantInn("1234567890").build())
+                .docId("doc-1")
+                .docStatus(CrptApi.Document.DocStatus.NEW.name())
+                .docType(CrptApi.Document.DocType.LP_INTRODUCE_GOODS.name())
+                .importRequest(true)
+                .ownerInn("1234567890")
+                .participantInn("1234567890")
+                .producerInn("1234567890")
+                .productionDate(LocalDate.of(-1, 12, 31))
+                .productionType(CrptApi.Document.ProductType.PRODUCT_TYPE.name())
+                .products(products)
+                .regDate(date)
+                .regNumber("reg-1")
+                .build();
+        return List.of(
+                full,
+                CrptApi.Document.builder().build(),
+                CrptApi.Document.builder().docId("empty").products(List.of()).build(),
+                CrptApi.Document.builder().docId("nulls").products(withNull).build());
+    }
+
+    private static String publish(Flow.Publisher<ByteBuffer> publisher) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        CompletableFuture<String> done = new CompletableFuture<>();
+        publisher.subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(ByteBuffer item) {
+                body.write(item.array(), item.arrayOffset() + item.position(), item.remaining());
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                done.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                done.complete(body.toString(StandardCharsets.UTF_8));
+            }
+        });
+        return done.join();
+    }
+}
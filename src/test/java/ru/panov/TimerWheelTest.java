@@ -0,0 +1,70 @@
+package ru.panov;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimerWheelTest {
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    void runsTasksNoEarlierThanTheirDelayInDeadlineOrder() throws InterruptedException {
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(3);
+        try (CrptApi.TimerWheel timer = new CrptApi.TimerWheel(TICK_NANOS, 8)) {
+            long scheduledAt = System.nanoTime();
+            long[] ranAfter = new long[3];
+            int[] delaysMillis = {60, 5, 30};
+            for (int i = 0; i < delaysMillis.length; i++) {
+                int task = i;
+                timer.schedule(() -> {
+                    ranAfter[task] = System.nanoTime() - scheduledAt;
+                    order.add(task);
+                    done.countDown();
+                }, TimeUnit.MILLISECONDS.toNanos(delaysMillis[i]));
+            }
+
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertEquals(List.of(1, 2, 0), order);
+            for (int i = 0; i < delaysMillis.length; i++) {
+                // Задача на 60 мс проходит колесо из 8 ячеек по 1 мс несколько раз.
+                assertTrue(ranAfter[i] >= TimeUnit.MILLISECONDS.toNanos(delaysMillis[i]) - TICK_NANOS,
+                        "task " + i + " ran after " + ranAfter[i] + " ns");
+            }
+        }
+    }
+
+    @Test
+    void failingTaskDoesNotStopTimer() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        try (CrptApi.TimerWheel timer = new CrptApi.TimerWheel(TICK_NANOS, 8)) {
+            timer.schedule(() -> {
+                throw new IllegalStateException("expected");
+            }, 0);
+            timer.schedule(done::countDown, TimeUnit.MILLISECONDS.toNanos(5));
+
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void shutdownNowReturnsUnstartedTasksAndRejectsNewOnes() {
+        CrptApi.TimerWheel timer = new CrptApi.TimerWheel(TICK_NANOS, 8);
+        Runnable parked = () -> {
+        };
+        timer.schedule(parked, TimeUnit.SECONDS.toNanos(10));
+
+        assertEquals(List.of(parked), timer.shutdownNow());
+        assertThrows(RejectedExecutionException.class, () -> timer.schedule(parked, 0));
+        assertEquals(List.of(), timer.shutdownNow());
+    }
+}
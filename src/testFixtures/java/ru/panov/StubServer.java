@@ -0,0 +1,233 @@
+package ru.panov;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.Builder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Локальная заглушка метода создания документа для нагрузочного тестирования без доступа к CRPT.
+ * Поддерживает настраиваемую задержку ответа, внедрение ответов 429 и 5xx,
+ * а также собственное ограничение частоты запросов на стороне сервера.
+ * Счетчики позволяют проверить, что клиент не превысил лимит.
+ * Используется тестами и бенчмарками, поэтому лежит в src/testFixtures.
+ * <p>
+ * Без {@code sun.net.httpserver.nodelay=true} каждый ответ ждет отложенного ACK (~40 мс).
+ * Свойство читается при первом создании HttpServer в JVM, поэтому заглушка задает его при загрузке класса;
+ * в тестах и бенчмарках других HttpServer нет.
+ */
+public class StubServer implements AutoCloseable {
+    private static final String CREATE_DOCUMENT_PATH = "/api/v3/lk/documents/create";
+
+    static {
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final LatencyModel latency;
+    private final double tooManyRequestsRate;
+    private final double serverErrorRate;
+    private final long windowNanos;
+    private final int requestLimit;
+    private final Consumer<String> requestListener;
+    private final Queue<Long> acceptedTimes = new ArrayDeque<>();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder succeeded = new LongAdder();
+    private final LongAdder injectedErrors = new LongAdder();
+    private final LongAdder limitViolations = new LongAdder();
+
+    /**
+     * Запускает заглушку на {@code 127.0.0.1}.
+     *
+     * @param port                порт или 0 для выбора свободного
+     * @param latency             модель задержки ответа, по умолчанию без задержки
+     * @param tooManyRequestsRate доля запросов, на которые отвечать 429
+     * @param serverErrorRate     доля запросов, на которые отвечать 503
+     * @param limitTimeUnit       промежуток времени серверного лимита
+     * @param requestLimit        серверный лимит запросов за промежуток, 0 - без ограничения
+     * @param limitTolerance      на сколько сократить окно серверного лимита, чтобы разброс сетевой
+     *                            задержки между клиентом и заглушкой не засчитывался как превышение
+     * @param requestListener     получает заголовок Signature каждого запроса POST в порядке обработки,
+     *                            может отсутствовать
+     * @param handlerThreads      количество потоков обработки запросов, 0 - без ограничения;
+     *                            с одним потоком запросы обрабатываются строго по очереди
+     */
+    @Builder
+    public StubServer(int port, LatencyModel latency, double tooManyRequestsRate, double serverErrorRate,
+                      TimeUnit limitTimeUnit, int requestLimit, Duration limitTolerance,
+                      Consumer<String> requestListener, int handlerThreads) throws IOException {
+        this.latency = latency != null ? latency : LatencyModel.none();
+        this.tooManyRequestsRate = tooManyRequestsRate;
+        this.serverErrorRate = serverErrorRate;
+        long tolerance = limitTolerance != null ? limitTolerance.toNanos() : 0;
+        this.windowNanos = limitTimeUnit != null ? limitTimeUnit.toNanos(1) - tolerance : 0;
+        this.requestLimit = requestLimit;
+        this.requestListener = requestListener != null ? requestListener : signature -> {
+        };
+        this.executor = handlerThreads > 0 ? Executors.newFixedThreadPool(handlerThreads) : Executors.newCachedThreadPool();
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.setExecutor(executor);
+        server.createContext(CREATE_DOCUMENT_PATH, this::handle);
+        server.start();
+    }
+
+    /**
+     * Адрес метода создания документа на заглушке.
+     */
+    public URI getUri() {
+        InetSocketAddress address = server.getAddress();
+        return URI.create("http://" + address.getHostString() + ":" + address.getPort() + CREATE_DOCUMENT_PATH);
+    }
+
+    public long getReceived() {
+        return received.sum();
+    }
+
+    public long getSucceeded() {
+        return succeeded.sum();
+    }
+
+    public long getInjectedErrors() {
+        return injectedErrors.sum();
+    }
+
+    /**
+     * Количество запросов, превысивших серверный лимит.
+     */
+    public long getLimitViolations() {
+        return limitViolations.sum();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange; InputStream body = exchange.getRequestBody()) {
+            if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+                new GZIPInputStream(body).transferTo(OutputStream.nullOutputStream());
+            } else {
+                body.transferTo(OutputStream.nullOutputStream());
+            }
+            received.increment();
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, "{\"error_message\":\"Method not allowed\"}");
+                return;
+            }
+            requestListener.accept(exchange.getRequestHeaders().getFirst("Signature"));
+            boolean withinLimit = admit();
+            sleep(latency.nextDelayNanos());
+            if (!withinLimit) {
+                limitViolations.increment();
+                exchange.getResponseHeaders().add("Retry-After", "1");
+                respond(exchange, 429, "{\"error_message\":\"Rate limit exceeded\"}");
+                return;
+            }
+            double roll = ThreadLocalRandom.current().nextDouble();
+            if (roll < tooManyRequestsRate) {
+                injectedErrors.increment();
+                exchange.getResponseHeaders().add("Retry-After", "1");
+                respond(exchange, 429, "{\"error_message\":\"Too many requests\"}");
+            } else if (roll < tooManyRequestsRate + serverErrorRate) {
+                injectedErrors.increment();
+                respond(exchange, 503, "{\"error_message\":\"Service unavailable\"}");
+            } else {
+                succeeded.increment();
+                respond(exchange, 200, "{\"value\":\"" + UUID.randomUUID() + "\"}");
+            }
+        }
+    }
+
+    /**
+     * Проверяет серверный лимит по журналу скользящего окна.
+     */
+    private boolean admit() {
+        if (requestLimit <= 0) {
+            return true;
+        }
+        long now = System.nanoTime();
+        synchronized (acceptedTimes) {
+            while (!acceptedTimes.isEmpty() && now - acceptedTimes.peek() >= windowNanos) {
+                acceptedTimes.poll();
+            }
+            if (acceptedTimes.size() >= requestLimit) {
+                return false;
+            }
+            acceptedTimes.add(now);
+            return true;
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    private static void sleep(long nanos) {
+        if (nanos <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Модель задержки ответа заглушки.
+     */
+    public interface LatencyModel {
+        long nextDelayNanos();
+
+        static LatencyModel none() {
+            return () -> 0;
+        }
+
+        static LatencyModel fixed(Duration delay) {
+            long nanos = delay.toNanos();
+            return () -> nanos;
+        }
+
+        static LatencyModel uniform(Duration min, Duration max) {
+            long minNanos = min.toNanos();
+            long maxNanos = max.toNanos();
+            return () -> ThreadLocalRandom.current().nextLong(minNanos, maxNanos + 1);
+        }
+
+        /**
+         * Экспоненциальное распределение с заданным средним - типичная модель "длинного хвоста".
+         */
+        static LatencyModel exponential(Duration mean) {
+            double meanNanos = mean.toNanos();
+            return () -> (long) (-meanNanos * Math.log(1 - ThreadLocalRandom.current().nextDouble()));
+        }
+    }
+}